@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yjp.flink.sql.enums;
+
+/**
+ * 维表异步查询结果的输出方式
+ * ORDERED: 按输入顺序输出; UNORDERED: 查询完成即输出, 没有队头阻塞
+ * @author xuchao
+ */
+public enum EAsyncMode {
+    ORDERED, UNORDERED;
+
+    public static boolean isValid(String type){
+        for(EAsyncMode tmpType : EAsyncMode.values()){
+            if(tmpType.name().equalsIgnoreCase(type)){
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
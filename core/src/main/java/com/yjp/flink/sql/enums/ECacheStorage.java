@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+ 
+
+package com.yjp.flink.sql.enums;
+
+/**
+ * ALL模式维表缓存的存放位置
+ * HEAP: 堆内; OFFHEAP: 序列化后存放在堆外内存; MMAP: 写入本地快照文件后映射, 同一台机器共用并可在重启后复用
+ */
+public enum ECacheStorage {
+    HEAP, OFFHEAP, MMAP;
+
+    public static boolean isValid(String type){
+        for(ECacheStorage tmpType : ECacheStorage.values()){
+            if(tmpType.name().equalsIgnoreCase(type)){
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -27,7 +27,10 @@ package com.yjp.flink.sql.enums;
  * @author xuchao
  */
 public enum ECacheType {
-    NONE, LRU, ALL;
+    /**
+     * HYBRID: 后台加载全量数据, 没有关联到的key异步查询并放入LRU缓存
+     */
+    NONE, LRU, LFU, ALL, HYBRID;
 
     public static boolean isValid(String type){
         for(ECacheType tmpType : ECacheType.values()){
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.enums;
+
+/**
+ * 维表异步查询超时或失败后的处理方式
+ * FILL_NULL: 同没有关联到的数据, left join维表字段填null输出, inner join不输出;
+ * STALE: 有该key最后一次查询到的数据(包括缓存中已过期的)则用它输出, 否则同FILL_NULL;
+ * DROP: 丢弃该条数据; FAIL: 抛出超时或查询的异常
+ * @author xuchao
+ */
+public enum ETimeoutPolicy {
+    FILL_NULL, STALE, DROP, FAIL;
+
+    public static boolean isValid(String type){
+        for(ETimeoutPolicy tmpType : ETimeoutPolicy.values()){
+            if(tmpType.name().equalsIgnoreCase(type)){
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
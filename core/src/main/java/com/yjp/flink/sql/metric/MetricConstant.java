@@ -52,6 +52,28 @@ public class MetricConstant {
 
     public static final String DT_NUM_RECORDS_OUT_RATE = "dtNumRecordsOutRate";
 
+    /**
+     * metric name of sink deletes ignored because the row did not exist
+     */
+    public static final String DT_NUM_SINK_IGNORED_DELETE_COUNTER = "dtNumSinkIgnoredDelete";
+
+    /**
+     * metric name of side table async lookup timeout
+     */
+    public static final String DT_NUM_SIDE_TIMEOUT_COUNTER = "dtNumSideTimeout";
+
+    /**
+     * metric name of side table lookups re-sent to another replica because the first one was slow
+     */
+    public static final String DT_NUM_SIDE_HEDGE_COUNTER = "dtNumSideHedge";
+
+    public static final String DT_NUM_SIDE_HEDGE_RATE = "dtNumSideHedgeRate";
+
+    /**
+     * metric name of estimated heap bytes held by side table cache
+     */
+    public static final String DT_SIDE_CACHE_BYTES_GAUGE = "dtSideCacheBytes";
+
     public static final String DT_EVENT_DELAY_GAUGE = "dtEventDelay";
 
     public static final String DT_TOPIC_PARTITION_LAG_GAUGE = "dtTopicPartitionLag";
@@ -59,4 +81,6 @@ public class MetricConstant {
     public static final String DT_TOPIC_GROUP = "topic";
 
     public static final String DT_PARTITION_GROUP = "partition";
+
+    public static final String DT_SIDE_TABLE_GROUP = "sideTable";
 }
@@ -43,6 +43,11 @@ public abstract class AllReqRow extends RichFlatMapFunction<Row, Row> implements
 
     private ScheduledExecutorService es;
 
+    /**
+     * 共用缓存时在SideResourceRegistry中的key, 不共用时为null
+     */
+    private transient String sharedCacheKey;
+
     public AllReqRow(SideInfo sideInfo) {
         this.sideInfo = sideInfo;
 
@@ -52,16 +57,88 @@ public abstract class AllReqRow extends RichFlatMapFunction<Row, Row> implements
 
     protected abstract void reloadCache();
 
+    /**
+     * 缓存能否被同一个TaskManager中的多个subtask同时读取, 默认不共用
+     */
+    protected boolean isCacheShareable() {
+        return false;
+    }
+
+    /**
+     * 使用owner加载的缓存, owner为第一个打开的subtask, 也可能是自己
+     */
+    protected void attachSharedCache(AllReqRow owner) {
+    }
+
+    /**
+     * 释放缓存和连接; 共用缓存时只在最后一个使用者关闭时由owner执行
+     */
+    protected void releaseCache() throws Exception {
+    }
+
     @Override
     public void open(Configuration parameters) throws Exception {
         super.open(parameters);
-        initCache();
+        if (sideInfo.getSideTableInfo().isCacheShared() && isCacheShareable()) {
+            //一份数据和一个reload线程, 由第一个打开的subtask加载
+            sharedCacheKey = sideInfo.getSharedCacheKey();
+            SharedCache sharedCache = SideResourceRegistry.acquire(sharedCacheKey, () -> {
+                initCache();
+                return new SharedCache(this, startReload());
+            });
+            attachSharedCache(sharedCache.owner);
+        } else {
+            initCache();
+            es = startReload();
+        }
         System.out.println("----- all cacheRef init end-----");
+    }
 
+    private ScheduledExecutorService startReload() {
         //start reload cache thread
         SideTableInfo sideTableInfo = sideInfo.getSideTableInfo();
-        es = Executors.newSingleThreadScheduledExecutor(new YjpThreadFactory("cache-all-reload"));
-        es.scheduleAtFixedRate(() -> reloadCache(), sideTableInfo.getCacheTimeout(), sideTableInfo.getCacheTimeout(), TimeUnit.MILLISECONDS);
+        ScheduledExecutorService reloadExecutor = Executors.newSingleThreadScheduledExecutor(new YjpThreadFactory("cache-all-reload"));
+        reloadExecutor.scheduleAtFixedRate(() -> reloadCache(), sideTableInfo.getCacheTimeout(), sideTableInfo.getCacheTimeout(), TimeUnit.MILLISECONDS);
+        return reloadExecutor;
+    }
+
+    private static void stopReload(ScheduledExecutorService reloadExecutor) throws InterruptedException {
+        reloadExecutor.shutdownNow();
+        reloadExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        if (sharedCacheKey != null) {
+            SideResourceRegistry.release(sharedCacheKey);
+            sharedCacheKey = null;
+            return;
+        }
+
+        //stop reload thread before release cache
+        if (es != null) {
+            stopReload(es);
+        }
+        releaseCache();
+    }
+
+    private static final class SharedCache implements AutoCloseable {
+
+        private final AllReqRow owner;
+
+        private final ScheduledExecutorService es;
+
+        private SharedCache(AllReqRow owner, ScheduledExecutorService es) {
+            this.owner = owner;
+            this.es = es;
+        }
+
+        @Override
+        public void close() throws Exception {
+            stopReload(es);
+            owner.releaseCache();
+        }
     }
 
 }
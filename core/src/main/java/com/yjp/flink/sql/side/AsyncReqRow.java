@@ -20,18 +20,39 @@
 
 package com.yjp.flink.sql.side;
 
+import com.yjp.flink.sql.enums.ECacheContentType;
 import com.yjp.flink.sql.enums.ECacheType;
+import com.yjp.flink.sql.enums.ETimeoutPolicy;
+import com.yjp.flink.sql.metric.MetricConstant;
 import com.yjp.flink.sql.side.cache.AbsSideCache;
+import com.yjp.flink.sql.side.cache.AllCacheHolder;
+import com.yjp.flink.sql.side.cache.AllCacheIndex;
 import com.yjp.flink.sql.side.cache.CacheObj;
+import com.yjp.flink.sql.side.cache.LFUSideCache;
 import com.yjp.flink.sql.side.cache.LRUSideCache;
+import com.yjp.flink.sql.side.cache.MissKeyCache;
+import com.yjp.flink.sql.side.cache.SnapshotLoader;
+import com.yjp.flink.sql.side.cache.StaleValueCache;
+import com.yjp.flink.sql.threadFactory.YjpThreadFactory;
 import org.apache.calcite.sql.JoinType;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.Gauge;
 import org.apache.flink.streaming.api.functions.async.ResultFuture;
 import org.apache.flink.streaming.api.functions.async.RichAsyncFunction;
-import org.apache.flink.streaming.api.operators.async.queue.StreamRecordQueueEntry;
 import org.apache.flink.types.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -46,46 +67,178 @@ public abstract class AsyncReqRow extends RichAsyncFunction<Row, Row> implements
 
     private static final long serialVersionUID = 2098635244857937717L;
 
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncReqRow.class);
+
     protected SideInfo sideInfo;
 
+    /**
+     * 正在查询中的key及等待该key结果的数据, 同一个key同时只向外部存储发起一次查询
+     */
+    private transient Map<SideKey, List<Tuple2<Row, ResultFuture<Row>>>> inFlightRequests;
+
+    /**
+     * 配置了cacheMissTTLMs时, 不存在的key缓存在这里而不是sideCache中
+     */
+    private transient MissKeyCache missKeyCache;
+
+    /**
+     * 共用缓存时在SideResourceRegistry中的key, 不共用时为null
+     */
+    private transient String sharedCacheKey;
+
+    private transient String sharedMissKeyCacheKey;
+
+    /**
+     * asyncTimeoutPolicy为STALE时保存每个key最后一次查询到的数据, 超时或查询失败时使用
+     */
+    private transient StaleValueCache staleValueCache;
+
+    private transient String sharedStaleCacheKey;
+
+    /**
+     * HYBRID模式下后台加载的全量数据, 共用时为共用的实例
+     */
+    private transient HybridSnapshot hybridSnapshot;
+
+    private transient String sharedSnapshotKey;
+
+    private transient ETimeoutPolicy timeoutPolicy;
+
+    private transient Counter timeoutCounter;
+
     public AsyncReqRow(SideInfo sideInfo){
         this.sideInfo = sideInfo;
     }
 
     @Override
     public void timeout(Row input, ResultFuture<Row> resultFuture) throws Exception {
-        StreamRecordQueueEntry<Row> future = (StreamRecordQueueEntry<Row>)resultFuture;
-        try {
-            if (null == future.get()) {
-                new TimeoutException("Async function call has timed out.");
-            }
-        } catch (Exception e) {
-            throw new Exception(e);
+        timeoutCounter.inc();
+        SideKey key = buildCacheKey(input);
+        if (key != null) {
+            removeInFlightWaiter(key, resultFuture);
+        }
+        dealLookupFailure(input, key, resultFuture, new TimeoutException("Async function call has timed out."));
+    }
+
+    /**
+     * 查询超时或失败时按asyncTimeoutPolicy输出; FILL_NULL和STALE没有数据时同没有关联到的数据, inner join不输出
+     */
+    private void dealLookupFailure(Row input, SideKey key, ResultFuture<Row> resultFuture, Throwable cause) {
+        switch (timeoutPolicy) {
+            case STALE:
+                CacheObj val = staleValueCache != null && key != null ? staleValueCache.get(key) : null;
+                if (val != null) {
+                    dealCacheData(input, val, resultFuture);
+                    return;
+                }
+                dealMissKey(input, resultFuture);
+                break;
+            case FILL_NULL:
+                dealMissKey(input, resultFuture);
+                break;
+            case DROP:
+                resultFuture.complete(Collections.emptyList());
+                break;
+            default:
+                resultFuture.completeExceptionally(cause);
         }
     }
 
-    private void initCache(){
+    private void initCache() throws Exception {
         SideTableInfo sideTableInfo = sideInfo.getSideTableInfo();
         if(sideTableInfo.getCacheType() == null || ECacheType.NONE.name().equalsIgnoreCase(sideTableInfo.getCacheType())){
             return;
         }
 
+        //LRU/LFU缓存和missKeyCache都是线程安全的, 同一个TaskManager中的subtask可以共用
         AbsSideCache sideCache;
-        if(ECacheType.LRU.name().equalsIgnoreCase(sideTableInfo.getCacheType())){
+        if(sideTableInfo.isCacheShared()){
+            sharedCacheKey = sideInfo.getSharedCacheKey();
+            sideCache = SideResourceRegistry.acquire(sharedCacheKey, () -> createCache(sideTableInfo));
+        }else{
+            sideCache = createCache(sideTableInfo);
+        }
+        sideInfo.setSideCache(sideCache);
+
+        if(sideTableInfo.getCacheMissTimeout() > 0){
+            if(sideTableInfo.isCacheShared()){
+                sharedMissKeyCacheKey = sharedCacheKey + ":miss";
+                missKeyCache = SideResourceRegistry.acquire(sharedMissKeyCacheKey, () -> createMissKeyCache(sideTableInfo));
+            }else{
+                missKeyCache = createMissKeyCache(sideTableInfo);
+            }
+        }
+
+        if(ETimeoutPolicy.STALE == timeoutPolicy){
+            if(sideTableInfo.isCacheShared()){
+                sharedStaleCacheKey = sharedCacheKey + ":stale";
+                staleValueCache = SideResourceRegistry.acquire(sharedStaleCacheKey, () -> createStaleValueCache(sideTableInfo));
+            }else{
+                staleValueCache = createStaleValueCache(sideTableInfo);
+            }
+        }
+    }
+
+    private StaleValueCache createStaleValueCache(SideTableInfo sideTableInfo){
+        StaleValueCache staleValueCache = new StaleValueCache(sideTableInfo);
+        staleValueCache.initCache();
+        return staleValueCache;
+    }
+
+    private AbsSideCache createCache(SideTableInfo sideTableInfo){
+        AbsSideCache sideCache;
+        if(ECacheType.LRU.name().equalsIgnoreCase(sideTableInfo.getCacheType())
+                || ECacheType.HYBRID.name().equalsIgnoreCase(sideTableInfo.getCacheType())){
+            //HYBRID模式下全量数据中没有的key查询后放入LRU缓存
             sideCache = new LRUSideCache(sideTableInfo);
-            sideInfo.setSideCache(sideCache);
+        }else if(ECacheType.LFU.name().equalsIgnoreCase(sideTableInfo.getCacheType())){
+            sideCache = new LFUSideCache(sideTableInfo);
         }else{
             throw new RuntimeException("not support side cache with type:" + sideTableInfo.getCacheType());
         }
 
         sideCache.initCache();
+        return sideCache;
     }
 
-    protected CacheObj getFromCache(String key){
+    private MissKeyCache createMissKeyCache(SideTableInfo sideTableInfo){
+        MissKeyCache missKeyCache = new MissKeyCache(sideTableInfo.getCacheMissTimeout(), sideTableInfo.getCacheMissSize());
+        missKeyCache.initCache();
+        return missKeyCache;
+    }
+
+    /**
+     * 按关联字段的值生成缓存key, 关联字段有null时返回null
+     */
+    protected SideKey buildCacheKey(Row input){
+        return SideKey.of(input, sideInfo.getEqualValIndex());
+    }
+
+    protected CacheObj getFromCache(SideKey key){
+        if (missKeyCache != null && missKeyCache.contains(key)) {
+            return CacheMissVal.getMissKeyObj();
+        }
+
         return sideInfo.getSideCache().getFromCache(key);
     }
 
-    protected void putCache(String key, CacheObj value){
+    protected void putCache(SideKey key, CacheObj value){
+        if (staleValueCache != null) {
+            if (ECacheContentType.MissVal == value.getType()) {
+                staleValueCache.invalidate(key);
+            } else {
+                staleValueCache.put(key, value);
+            }
+        }
+
+        if (missKeyCache != null) {
+            if (ECacheContentType.MissVal == value.getType()) {
+                missKeyCache.put(key);
+                return;
+            }
+            missKeyCache.invalidate(key);
+        }
+
         sideInfo.getSideCache().putCache(key, value);
     }
 
@@ -93,6 +246,122 @@ public abstract class AsyncReqRow extends RichAsyncFunction<Row, Row> implements
         return sideInfo.getSideCache() != null;
     }
 
+    /**
+     * 同一个key已有查询在进行中时挂到该查询上等待结果并返回true;
+     * 否则登记为新的查询并返回false, 调用方需要发起查询并在结束时调用completeInFlight
+     */
+    protected boolean joinInFlight(SideKey key, Row input, ResultFuture<Row> resultFuture) {
+        synchronized (inFlightRequests) {
+            List<Tuple2<Row, ResultFuture<Row>>> waiters = inFlightRequests.get(key);
+            if (waiters != null) {
+                waiters.add(Tuple2.of(input, resultFuture));
+                return true;
+            }
+
+            inFlightRequests.put(key, Lists.newArrayList(Tuple2.of(input, resultFuture)));
+            return false;
+        }
+    }
+
+    /**
+     * 缓存命中但已超过刷新时间时登记一次后台刷新(没有等待的数据);
+     * 返回true时调用方需要发起查询并在结束时调用completeInFlight, 刷新完成前继续使用旧的缓存
+     */
+    protected boolean needRefresh(SideKey key) {
+        if (!openCache() || !sideInfo.getSideCache().needRefresh(key)) {
+            return false;
+        }
+
+        synchronized (inFlightRequests) {
+            if (inFlightRequests.containsKey(key)) {
+                return false;
+            }
+
+            inFlightRequests.put(key, Lists.newArrayList());
+            return true;
+        }
+    }
+
+    /**
+     * 查询结束: 先放入缓存再移除登记, 之后到达的数据可以直接命中缓存
+     */
+    protected void completeInFlight(SideKey key, CacheObj val) {
+        if (openCache()) {
+            putCache(key, val);
+        }
+
+        List<Tuple2<Row, ResultFuture<Row>>> waiters;
+        synchronized (inFlightRequests) {
+            waiters = inFlightRequests.remove(key);
+        }
+
+        if (waiters == null) {
+            return;
+        }
+
+        for (Tuple2<Row, ResultFuture<Row>> waiter : waiters) {
+            try {
+                dealCacheData(waiter.f0, val, waiter.f1);
+            } catch (Exception e) {
+                waiter.f1.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 查询失败: 等待的数据按asyncTimeoutPolicy处理, FAIL时抛出查询的异常
+     */
+    protected void completeInFlightExceptionally(SideKey key, Throwable throwable) {
+        List<Tuple2<Row, ResultFuture<Row>>> waiters;
+        synchronized (inFlightRequests) {
+            waiters = inFlightRequests.remove(key);
+        }
+
+        if (waiters == null) {
+            return;
+        }
+
+        for (Tuple2<Row, ResultFuture<Row>> waiter : waiters) {
+            try {
+                dealLookupFailure(waiter.f0, key, waiter.f1, throwable);
+            } catch (Exception e) {
+                waiter.f1.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 超时的数据已经输出, 不再等待查询结果; 查询本身继续进行, 结果仍会放入缓存
+     */
+    private void removeInFlightWaiter(SideKey key, ResultFuture<Row> resultFuture) {
+        synchronized (inFlightRequests) {
+            List<Tuple2<Row, ResultFuture<Row>>> waiters = inFlightRequests.get(key);
+            if (waiters != null) {
+                waiters.removeIf(waiter -> waiter.f1 == resultFuture);
+            }
+        }
+    }
+
+    /**
+     * 根据缓存内容输出关联结果
+     */
+    protected void dealCacheData(Row input, CacheObj val, ResultFuture<Row> resultFuture) {
+        if (ECacheContentType.MissVal == val.getType()) {
+            dealMissKey(input, resultFuture);
+        } else if (ECacheContentType.SingleLine == val.getType()) {
+            Row row = fillData(input, val.getContent());
+            resultFuture.complete(Collections.singleton(row));
+        } else if (ECacheContentType.MultiLine == val.getType()) {
+            List<Row> rowList = Lists.newArrayList();
+            for (Object sideInput : (List) val.getContent()) {
+                rowList.add(fillData(input, sideInput));
+            }
+            resultFuture.complete(rowList);
+        } else {
+            throw new RuntimeException("not support cache obj type " + val.getType());
+        }
+    }
+
     protected void dealMissKey(Row input, ResultFuture<Row> resultFuture){
         if(sideInfo.getJoinType() == JoinType.LEFT){
             //Reserved left table data
@@ -103,14 +372,123 @@ public abstract class AsyncReqRow extends RichAsyncFunction<Row, Row> implements
         }
     }
 
+    /**
+     * 全量数据加载完成后优先从全量数据中关联, 加载完成前或没有关联到时返回false, 由异步查询处理
+     */
+    protected boolean dealSnapshotData(Row input, ResultFuture<Row> resultFuture){
+        if(hybridSnapshot == null){
+            return false;
+        }
+
+        AllCacheIndex<Object[]> index = hybridSnapshot.cacheRef.get();
+        List<Object[]> sideRows = index == null ? null : index.get(input);
+        if(sideRows == null || sideRows.isEmpty()){
+            return false;
+        }
+
+        List<Row> rowList = Lists.newArrayList();
+        for(Object[] sideRow : sideRows){
+            rowList.add(fillData(input, sideRow));
+        }
+        resultFuture.complete(rowList);
+        return true;
+    }
+
+    private void initSnapshot() throws Exception {
+        SideTableInfo sideTableInfo = sideInfo.getSideTableInfo();
+        if(!ECacheType.HYBRID.name().equalsIgnoreCase(sideTableInfo.getCacheType())){
+            return;
+        }
+
+        if(!(this instanceof HybridSideSupport)){
+            throw new IllegalArgumentException("side table " + sideTableInfo.getName() + " of type " + sideTableInfo.getType()
+                    + " not support cache type " + ECacheType.HYBRID);
+        }
+
+        HybridSideSupport hybridSupport = (HybridSideSupport) this;
+        if(sideTableInfo.isCacheShared()){
+            sharedSnapshotKey = sideInfo.getSharedCacheKey() + ":hybrid";
+            hybridSnapshot = SideResourceRegistry.acquire(sharedSnapshotKey,
+                    () -> new HybridSnapshot(hybridSupport.createSnapshotLoader(), sideTableInfo.getCacheTimeout()));
+        }else{
+            hybridSnapshot = new HybridSnapshot(hybridSupport.createSnapshotLoader(), sideTableInfo.getCacheTimeout());
+        }
+    }
+
     @Override
     public void open(Configuration parameters) throws Exception {
         super.open(parameters);
+        timeoutPolicy = ETimeoutPolicy.valueOf(sideInfo.getSideTableInfo().getAsyncTimeoutPolicy().toUpperCase());
         initCache();
+        initSnapshot();
+        inFlightRequests = new HashMap<>();
+        timeoutCounter = getRuntimeContext().getMetricGroup().counter(MetricConstant.DT_NUM_SIDE_TIMEOUT_COUNTER);
+        if (openCache()) {
+            AbsSideCache sideCache = sideInfo.getSideCache();
+            getRuntimeContext().getMetricGroup()
+                    .addGroup(MetricConstant.DT_SIDE_TABLE_GROUP, sideInfo.getSideTableInfo().getName())
+                    .gauge(MetricConstant.DT_SIDE_CACHE_BYTES_GAUGE, (Gauge<Long>) () -> sideCache.getEstimatedBytes()
+                            + (staleValueCache == null ? 0 : staleValueCache.getEstimatedBytes()));
+        }
     }
 
     @Override
     public void close() throws Exception {
         super.close();
+        if (sharedCacheKey != null) {
+            SideResourceRegistry.release(sharedCacheKey);
+            sharedCacheKey = null;
+        }
+        if (sharedMissKeyCacheKey != null) {
+            SideResourceRegistry.release(sharedMissKeyCacheKey);
+            sharedMissKeyCacheKey = null;
+        }
+        if (sharedStaleCacheKey != null) {
+            SideResourceRegistry.release(sharedStaleCacheKey);
+            sharedStaleCacheKey = null;
+        }
+        if (sharedSnapshotKey != null) {
+            SideResourceRegistry.release(sharedSnapshotKey);
+            sharedSnapshotKey = null;
+        } else if (hybridSnapshot != null) {
+            hybridSnapshot.close();
+        }
+        hybridSnapshot = null;
+    }
+
+    /**
+     * 不阻塞open: 立即开始在后台加载全量数据, 之后每隔cacheTTLMs重新加载; 加载失败时继续使用旧数据.
+     * 持有loader, 关闭时一起关闭
+     */
+    private static final class HybridSnapshot implements AutoCloseable {
+
+        private final AllCacheHolder<Object[]> cacheRef = new AllCacheHolder<>();
+
+        private final SnapshotLoader loader;
+
+        private final ScheduledExecutorService es;
+
+        private HybridSnapshot(SnapshotLoader loader, long reloadMs) {
+            this.loader = loader;
+            es = Executors.newSingleThreadScheduledExecutor(new YjpThreadFactory("cache-hybrid-reload"));
+            es.scheduleWithFixedDelay(() -> {
+                try {
+                    cacheRef.set(loader.load());
+                } catch (Exception e) {
+                    LOG.error("load side table snapshot failed, keep the old snapshot.", e);
+                }
+            }, 0, reloadMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void close() throws Exception {
+            es.shutdownNow();
+            es.awaitTermination(10, TimeUnit.SECONDS);
+            try {
+                loader.close();
+            } finally {
+                cacheRef.release();
+            }
+        }
     }
 }
@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side;
+
+import com.yjp.flink.sql.side.cache.SnapshotLoader;
+
+/**
+ * 支持HYBRID缓存的异步维表实现此接口; 没有实现时配置HYBRID会在open中报错
+ */
+public interface HybridSideSupport {
+
+    /**
+     * 创建加载全量数据的loader; loader可能在创建它的subtask关闭后继续被其它subtask使用,
+     * 不能引用当前实例, 需要的连接自己获取并在close中释放
+     */
+    SnapshotLoader createSnapshotLoader() throws Exception;
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yjp.flink.sql.side;
+
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.api.java.tuple.Tuple;
+import org.apache.flink.runtime.state.KeyGroupRange;
+import org.apache.flink.runtime.state.KeyGroupRangeAssignment;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * partitionedJoin时输入流在SideSqlExec中按关联字段keyBy, 每个subtask只会收到自己key group范围内的数据;
+ * ALL模式下按同样的规则计算维表数据的key group, 每个subtask只缓存自己负责的部分.
+ * keyBy的key是由输入数据关联字段组成的Tuple, 维表的值需要先转成输入字段的类型, hashCode才一致;
+ * 无法转换的数据保留, 保证不会丢失关联结果
+ */
+
+public class KeyGroupFilter {
+
+    private final Class<?>[] keyClasses;
+
+    private final int maxParallelism;
+
+    private final KeyGroupRange keyGroupRange;
+
+    private KeyGroupFilter(Class<?>[] keyClasses, int maxParallelism, KeyGroupRange keyGroupRange) {
+        this.keyClasses = keyClasses;
+        this.maxParallelism = maxParallelism;
+        this.keyGroupRange = keyGroupRange;
+    }
+
+    /**
+     * 没有开启partitionedJoin或只有一个subtask时返回null, 加载全部数据
+     */
+    public static KeyGroupFilter create(RuntimeContext context, SideInfo sideInfo) {
+        if (!sideInfo.getSideTableInfo().isPartitionedJoin() || context.getNumberOfParallelSubtasks() <= 1) {
+            return null;
+        }
+
+        List<Integer> equalValIndex = sideInfo.getEqualValIndex();
+        Class<?>[] keyClasses = new Class<?>[equalValIndex.size()];
+        for (int i = 0; i < keyClasses.length; i++) {
+            keyClasses[i] = sideInfo.getRowTypeInfo().getTypeAt(equalValIndex.get(i)).getTypeClass();
+        }
+
+        int maxParallelism = context.getMaxNumberOfParallelSubtasks();
+        KeyGroupRange keyGroupRange = KeyGroupRangeAssignment.computeKeyGroupRangeForOperatorIndex(maxParallelism,
+                context.getNumberOfParallelSubtasks(), context.getIndexOfThisSubtask());
+        return new KeyGroupFilter(keyClasses, maxParallelism, keyGroupRange);
+    }
+
+    /**
+     * 可以在多个加载线程中同时调用
+     *
+     * @param sideRow             维表数据
+     * @param equalFieldPositions 关联字段在维表数据中的位置, 顺序与keyBy字段一致
+     */
+    public boolean accept(Object[] sideRow, int[] equalFieldPositions) {
+        Tuple key = Tuple.newInstance(equalFieldPositions.length);
+        for (int i = 0; i < equalFieldPositions.length; i++) {
+            Object value = sideRow[equalFieldPositions[i]];
+            if (value == null) {
+                //关联字段为null的数据不会被关联到
+                return false;
+            }
+
+            Object keyValue = convert(value, keyClasses[i]);
+            if (keyValue == null) {
+                return true;
+            }
+            key.setField(keyValue, i);
+        }
+
+        return keyGroupRange.contains(KeyGroupRangeAssignment.assignToKeyGroup(key, maxParallelism));
+    }
+
+    public KeyGroupRange getKeyGroupRange() {
+        return keyGroupRange;
+    }
+
+    private static Object convert(Object value, Class<?> keyClass) {
+        if (keyClass.isInstance(value)) {
+            return value;
+        }
+
+        if (value instanceof Number && !(value instanceof BigDecimal)) {
+            Number number = (Number) value;
+            if (keyClass == Long.class) {
+                return number.longValue();
+            } else if (keyClass == Integer.class) {
+                return number.intValue();
+            } else if (keyClass == Short.class) {
+                return number.shortValue();
+            } else if (keyClass == Byte.class) {
+                return number.byteValue();
+            } else if (keyClass == Double.class) {
+                return number.doubleValue();
+            } else if (keyClass == Float.class) {
+                return number.floatValue();
+            }
+        }
+
+        if (keyClass == String.class && !(value instanceof byte[])) {
+            return value.toString();
+        }
+
+        return null;
+    }
+}
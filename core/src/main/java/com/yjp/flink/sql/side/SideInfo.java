@@ -25,8 +25,11 @@ import org.apache.calcite.sql.*;
 import org.apache.flink.api.java.typeutils.RowTypeInfo;
 import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
 import org.apache.flink.calcite.shaded.com.google.common.collect.Maps;
+import org.apache.flink.table.typeutils.TimeIndicatorTypeInfo;
+import org.apache.flink.types.Row;
 
 import java.io.Serializable;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
 
@@ -62,6 +65,18 @@ public abstract class SideInfo implements Serializable{
     //key:Returns the value of the position, value:  the ref field name​in the side table
     protected Map<Integer, String> sideFieldNameIndex = Maps.newHashMap();
 
+    //fillRow copy by position: output position -> input field index, same as inFieldIndex
+    protected int[] inFieldOutIndexes;
+
+    protected int[] inFieldInIndexes;
+
+    protected boolean[] inFieldTimeIndicators;
+
+    //fillRow copy by position: output position -> side row position(projection order), same as sideFieldIndex
+    protected int[] sideFieldOutIndexes;
+
+    protected int[] sideFieldPositions;
+
     protected SideTableInfo sideTableInfo;
 
     protected AbsSideCache sideCache;
@@ -74,6 +89,69 @@ public abstract class SideInfo implements Serializable{
         this.sideTableInfo = sideTableInfo;
         parseSelectFields(joinInfo);
         buildEqualInfo(joinInfo, sideTableInfo);
+        buildFieldPositions();
+    }
+
+    /**
+     * 预先计算输出字段与输入数据/维表数据的位置对应关系, fillRow时按位置拷贝
+     */
+    protected void buildFieldPositions(){
+        inFieldOutIndexes = new int[inFieldIndex.size()];
+        inFieldInIndexes = new int[inFieldIndex.size()];
+        inFieldTimeIndicators = new boolean[inFieldIndex.size()];
+        int i = 0;
+        for(Map.Entry<Integer, Integer> entry : inFieldIndex.entrySet()){
+            inFieldOutIndexes[i] = entry.getKey();
+            inFieldInIndexes[i] = entry.getValue();
+            inFieldTimeIndicators[i] = TimeIndicatorTypeInfo.class.isAssignableFrom(rowTypeInfo.getTypeAt(entry.getValue()).getClass());
+            i++;
+        }
+
+        sideFieldOutIndexes = new int[sideFieldIndex.size()];
+        sideFieldPositions = new int[sideFieldIndex.size()];
+        i = 0;
+        for(Map.Entry<Integer, Integer> entry : sideFieldIndex.entrySet()){
+            sideFieldOutIndexes[i] = entry.getKey();
+            sideFieldPositions[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * 按位置拼接输出数据, sideRow为按sideSelectFields顺序存放的维表数据, 为null时维表字段填null
+     */
+    public Row fillRow(Row input, Object[] sideRow){
+        Row row = new Row(outFieldInfoList.size());
+        for(int i = 0; i < inFieldOutIndexes.length; i++){
+            Object obj = input.getField(inFieldInIndexes[i]);
+            //Type information for indicating event or processing time. However, it behaves like a regular SQL timestamp but is serialized as Long.
+            if(inFieldTimeIndicators[i] && obj instanceof Timestamp){
+                obj = ((Timestamp) obj).getTime();
+            }
+            row.setField(inFieldOutIndexes[i], obj);
+        }
+
+        if(sideRow != null){
+            for(int i = 0; i < sideFieldOutIndexes.length; i++){
+                row.setField(sideFieldOutIndexes[i], sideRow[sideFieldPositions[i]]);
+            }
+        }
+
+        return row;
+    }
+
+    /**
+     * 维表字段在sideSelectFields中的位置
+     */
+    public int getSideFieldPosition(String fieldName){
+        String[] fields = sideSelectFields.split(",");
+        for(int i = 0; i < fields.length; i++){
+            if(fields[i].trim().equalsIgnoreCase(fieldName)){
+                return i;
+            }
+        }
+
+        throw new RuntimeException("can't find field " + fieldName + " in select fields " + sideSelectFields);
     }
 
     public void parseSelectFields(JoinInfo joinInfo){
@@ -228,6 +306,13 @@ public abstract class SideInfo implements Serializable{
         this.sideFieldIndex = sideFieldIndex;
     }
 
+    /**
+     * 多个subtask共用缓存时的key: 同一张维表, 查询字段和关联字段都相同时缓存的内容才相同
+     */
+    public String getSharedCacheKey() {
+        return sideTableInfo.getType() + ":" + sideTableInfo.getName() + ":" + sideSelectFields + ":" + equalFieldList;
+    }
+
     public SideTableInfo getSideTableInfo() {
         return sideTableInfo;
     }
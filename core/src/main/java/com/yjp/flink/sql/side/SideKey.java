@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yjp.flink.sql.side;
+
+import org.apache.flink.types.Row;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 维表缓存的key, 由关联字段的值组成; 整数类型(byte/short/int/long)统一按long比较,
+ * 单个整数关联字段使用LongKey, 避免拼接字符串和不同字段值拼接后相同造成的冲突.
+ * 原来按字符串拼接时varchar字段可以关联int字段, 因此规范写法的整数字符串(如"123", 不含"0123"/"+1")也按long比较
+ */
+
+public abstract class SideKey {
+
+    /**
+     * 单个关联字段, 值为null时返回null
+     */
+    public static SideKey of(Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        Object keyValue = normalize(value);
+        if (keyValue instanceof Long) {
+            return new LongKey((Long) keyValue);
+        }
+
+        return new ObjectKey(keyValue);
+    }
+
+    /**
+     * 多个关联字段, 任一值为null时返回null
+     */
+    public static SideKey of(Object[] values) {
+        if (values.length == 1) {
+            return of(values[0]);
+        }
+
+        Object[] keyValues = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                return null;
+            }
+            keyValues[i] = normalize(value);
+        }
+
+        return new CompositeKey(keyValues);
+    }
+
+    /**
+     * 按关联字段在输入数据中的下标取值
+     */
+    public static SideKey of(Row input, List<Integer> equalValIndex) {
+        if (equalValIndex.size() == 1) {
+            return of(input.getField(equalValIndex.get(0)));
+        }
+
+        Object[] values = new Object[equalValIndex.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.getField(equalValIndex.get(i));
+        }
+
+        return of(values);
+    }
+
+    /**
+     * 关联字段值比较前的规范形式: 整数类型和规范写法的整数字符串转为Long, 其它不变
+     */
+    public static Object normalize(Object value) {
+        if (value instanceof Long) {
+            return value;
+        }
+
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof String) {
+            Long longValue = parseCanonicalLong((String) value);
+            return longValue == null ? value : longValue;
+        }
+
+        return value;
+    }
+
+    /**
+     * 只接受Long.toString能还原的写法, 避免"01"和"1"这类原来按字符串比较不相等的值被认为相等
+     */
+    private static Long parseCanonicalLong(String str) {
+        int length = str.length();
+        boolean negative = length > 0 && str.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+        if (length == start || length - start > 19) {
+            return null;
+        }
+        if (str.charAt(start) == '0' && (length - start > 1 || negative)) {
+            return null;
+        }
+
+        long result = 0;
+        for (int i = start; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            //按负数累加, 可以表示Long.MIN_VALUE
+            long next = result * 10 - (c - '0');
+            if (result < Long.MIN_VALUE / 10 || next > result) {
+                return null;
+            }
+            result = next;
+        }
+
+        if (negative) {
+            return result;
+        }
+        return result == Long.MIN_VALUE ? null : -result;
+    }
+
+    /**
+     * 估算占用的字节数
+     */
+    public abstract int estimateBytes();
+
+    public static final class LongKey extends SideKey {
+
+        private final long value;
+
+        public LongKey(long value) {
+            this.value = value;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        @Override
+        public int estimateBytes() {
+            return 24;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof LongKey && ((LongKey) o).value == value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    public static final class ObjectKey extends SideKey {
+
+        private final Object value;
+
+        public ObjectKey(Object value) {
+            this.value = value;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public int estimateBytes() {
+            if (value instanceof String) {
+                return 56 + 2 * ((String) value).length();
+            }
+            return 40;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof ObjectKey && value.equals(((ObjectKey) o).value));
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    public static final class CompositeKey extends SideKey {
+
+        private final Object[] values;
+
+        private final int hash;
+
+        public CompositeKey(Object[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        public Object[] getValues() {
+            return values;
+        }
+
+        @Override
+        public int estimateBytes() {
+            int size = 40 + 4 * values.length;
+            for (Object value : values) {
+                size += value instanceof String ? 40 + 2 * ((String) value).length() : 24;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof CompositeKey && hash == ((CompositeKey) o).hash && Arrays.equals(values, ((CompositeKey) o).values));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(values);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.yjp.flink.sql.side;
+
+import org.apache.flink.util.function.SupplierWithException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 同一个TaskManager中多个subtask共用的维表资源(客户端, 缓存), 按key引用计数;
+ * 第一个acquire的subtask创建, 最后一个release的subtask关闭(实现了AutoCloseable时).
+ * 同一个作业在一个TaskManager中的所有subtask使用同一个用户classloader, 静态变量在这些subtask之间共享
+ */
+
+public final class SideResourceRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SideResourceRegistry.class);
+
+    private static final Map<String, SharedResource> RESOURCES = new HashMap<>();
+
+    private SideResourceRegistry() {
+    }
+
+    /**
+     * 创建资源时只锁住当前key, 加载较慢的资源不会阻塞其它key
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T acquire(String key, SupplierWithException<T, Exception> factory) throws Exception {
+        SharedResource resource;
+        synchronized (RESOURCES) {
+            resource = RESOURCES.computeIfAbsent(key, k -> new SharedResource());
+            resource.refCount++;
+        }
+
+        try {
+            return (T) resource.get(factory);
+        } catch (Exception e) {
+            release(key);
+            throw e;
+        }
+    }
+
+    public static void release(String key) {
+        SharedResource resource;
+        synchronized (RESOURCES) {
+            resource = RESOURCES.get(key);
+            if (resource == null || --resource.refCount > 0) {
+                return;
+            }
+            RESOURCES.remove(key);
+        }
+
+        resource.close(key);
+    }
+
+    private static final class SharedResource {
+
+        private int refCount;
+
+        private Object value;
+
+        private synchronized Object get(SupplierWithException<?, Exception> factory) throws Exception {
+            if (value == null) {
+                value = factory.get();
+            }
+            return value;
+        }
+
+        private synchronized void close(String key) {
+            if (value instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) value).close();
+                } catch (Exception e) {
+                    LOG.error("close shared side resource " + key + " error.", e);
+                }
+            }
+            value = null;
+        }
+    }
+}
@@ -43,16 +43,64 @@ public abstract class SideTableInfo extends TableInfo implements Serializable {
 
     public static final String CACHE_TTLMS_KEY = "cacheTTLMs";
 
+    public static final String CACHE_MISS_TTLMS_KEY = "cacheMissTTLMs";
+
+    public static final String CACHE_MISS_SIZE_KEY = "cacheMissSize";
+
+    public static final String CACHE_MAX_BYTES_KEY = "cacheMaxBytes";
+
+    public static final String CACHE_REFRESH_MS_KEY = "cacheRefreshMs";
+
+    public static final String CACHE_JITTER_RATIO_KEY = "cacheJitterRatio";
+
+    public static final String CACHE_STORAGE_KEY = "cacheStorage";
+
+    public static final String CACHE_SNAPSHOT_DIR_KEY = "cacheSnapshotDir";
+
     public static final String PARTITIONED_JOIN_KEY = "partitionedJoin";
 
-    private String cacheType = "none";//None or LRU or ALL
+    public static final String CACHE_SHARED_KEY = "cacheShared";
+
+    public static final String ASYNC_MODE_KEY = "asyncMode";
+
+    public static final String ASYNC_CAPACITY_KEY = "asyncCapacity";
+
+    public static final String ASYNC_TIMEOUT_KEY = "asyncTimeoutMs";
+
+    public static final String ASYNC_TIMEOUT_POLICY_KEY = "asyncTimeoutPolicy";
+
+    private String cacheType = "none";//None or LRU or LFU or ALL
 
     private int cacheSize = 10000;
 
     private long cacheTimeout = 60 * 1000;//
 
+    private long cacheMissTimeout = 0;//0 means misses share the main cache
+
+    private int cacheMissSize = 100000;
+
+    private long cacheMaxBytes = 0;//0 means limit by cacheSize
+
+    private long cacheRefreshMs = 0;//0 means no refresh-ahead
+
+    private double cacheJitterRatio = 0.1;
+
+    private String cacheStorage = "heap";//heap or offheap or mmap, only for ALL
+
+    private String cacheSnapshotDir = System.getProperty("java.io.tmpdir") + "/flink-side-snapshot";//only for mmap
+
     private boolean partitionedJoin = false;
 
+    private boolean cacheShared = false;//share cache among subtasks in one TaskManager, cacheSize is then per TaskManager
+
+    private String asyncMode = "ordered";//ordered or unordered
+
+    private int asyncCapacity = 100;
+
+    private long asyncTimeout = 10000;
+
+    private String asyncTimeoutPolicy = "fail";//fill_null or stale or drop or fail
+
     public RowTypeInfo getRowTypeInfo() {
         Class[] fieldClass = getFieldClasses();
         TypeInformation<?>[] types = new TypeInformation[fieldClass.length];
@@ -88,6 +136,62 @@ public abstract class SideTableInfo extends TableInfo implements Serializable {
         this.cacheTimeout = cacheTimeout;
     }
 
+    public long getCacheMissTimeout() {
+        return cacheMissTimeout;
+    }
+
+    public void setCacheMissTimeout(long cacheMissTimeout) {
+        this.cacheMissTimeout = cacheMissTimeout;
+    }
+
+    public int getCacheMissSize() {
+        return cacheMissSize;
+    }
+
+    public void setCacheMissSize(int cacheMissSize) {
+        this.cacheMissSize = cacheMissSize;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    public long getCacheRefreshMs() {
+        return cacheRefreshMs;
+    }
+
+    public void setCacheRefreshMs(long cacheRefreshMs) {
+        this.cacheRefreshMs = cacheRefreshMs;
+    }
+
+    public double getCacheJitterRatio() {
+        return cacheJitterRatio;
+    }
+
+    public void setCacheJitterRatio(double cacheJitterRatio) {
+        this.cacheJitterRatio = cacheJitterRatio;
+    }
+
+    public String getCacheStorage() {
+        return cacheStorage;
+    }
+
+    public void setCacheStorage(String cacheStorage) {
+        this.cacheStorage = cacheStorage;
+    }
+
+    public String getCacheSnapshotDir() {
+        return cacheSnapshotDir;
+    }
+
+    public void setCacheSnapshotDir(String cacheSnapshotDir) {
+        this.cacheSnapshotDir = cacheSnapshotDir;
+    }
+
     public boolean isPartitionedJoin() {
         return partitionedJoin;
     }
@@ -95,4 +199,44 @@ public abstract class SideTableInfo extends TableInfo implements Serializable {
     public void setPartitionedJoin(boolean partitionedJoin) {
         this.partitionedJoin = partitionedJoin;
     }
+
+    public boolean isCacheShared() {
+        return cacheShared;
+    }
+
+    public void setCacheShared(boolean cacheShared) {
+        this.cacheShared = cacheShared;
+    }
+
+    public String getAsyncMode() {
+        return asyncMode;
+    }
+
+    public void setAsyncMode(String asyncMode) {
+        this.asyncMode = asyncMode;
+    }
+
+    public int getAsyncCapacity() {
+        return asyncCapacity;
+    }
+
+    public void setAsyncCapacity(int asyncCapacity) {
+        this.asyncCapacity = asyncCapacity;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public String getAsyncTimeoutPolicy() {
+        return asyncTimeoutPolicy;
+    }
+
+    public void setAsyncTimeoutPolicy(String asyncTimeoutPolicy) {
+        this.asyncTimeoutPolicy = asyncTimeoutPolicy;
+    }
 }
@@ -19,9 +19,12 @@
 
 package com.yjp.flink.sql.side.cache;
 
-
+import com.yjp.flink.sql.side.SideKey;
 import com.yjp.flink.sql.side.SideTableInfo;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Reason:
  * Date: 2018/9/10
@@ -34,13 +37,72 @@ public abstract class AbsSideCache {
 
     protected SideTableInfo sideTableInfo;
 
+    /**
+     * 当前缓存估算占用的字节数, 写入时增加, 淘汰/覆盖时减少
+     */
+    protected final AtomicLong estimatedBytes = new AtomicLong();
+
     public AbsSideCache(SideTableInfo sideTableInfo) {
         this.sideTableInfo = sideTableInfo;
     }
 
     public abstract void initCache();
 
-    public abstract CacheObj getFromCache(String key);
+    public abstract CacheObj getFromCache(SideKey key);
+
+    public abstract void putCache(SideKey key, CacheObj value);
+
+    /**
+     * 缓存已超过刷新时间时返回true, 调用方需要在后台重新查询该key; 同一个key在一个刷新周期内只返回一次true
+     */
+    public boolean needRefresh(SideKey key) {
+        return false;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    /**
+     * 配置了cacheMaxBytes时按估算的字节数限制缓存大小, 否则按cacheSize条数
+     */
+    protected boolean weighByBytes() {
+        return sideTableInfo.getCacheMaxBytes() > 0;
+    }
 
-    public abstract void putCache(String key, CacheObj value);
+    protected CacheEntry buildEntry(SideKey key, CacheObj value) {
+        long now = System.currentTimeMillis();
+        long expireTime = now + jitter(sideTableInfo.getCacheTimeout());
+        long refreshTime = sideTableInfo.getCacheRefreshMs() > 0 ? now + jitter(sideTableInfo.getCacheRefreshMs()) : Long.MAX_VALUE;
+        int weight = CacheSizeEstimator.estimate(key, value);
+        estimatedBytes.addAndGet(weight);
+        return new CacheEntry(value, refreshTime, expireTime, weight);
+    }
+
+    protected void onRemoval(CacheEntry entry) {
+        if (entry != null) {
+            estimatedBytes.addAndGet(-entry.weight);
+        }
+    }
+
+    protected boolean tryRefresh(CacheEntry entry) {
+        if (entry == null || sideTableInfo.getCacheRefreshMs() <= 0) {
+            return false;
+        }
+
+        //刷新失败时下一个刷新周期后再次尝试
+        return entry.tryRefresh(System.currentTimeMillis(), jitter(sideTableInfo.getCacheRefreshMs()));
+    }
+
+    /**
+     * 在[ttl * (1 - cacheJitterRatio), ttl]之间随机取值, 避免同时写入的key同时过期
+     */
+    protected long jitter(long ttl) {
+        long bound = (long) (ttl * sideTableInfo.getCacheJitterRatio());
+        if (bound <= 0) {
+            return ttl;
+        }
+
+        return ttl - ThreadLocalRandom.current().nextLong(bound + 1);
+    }
 }
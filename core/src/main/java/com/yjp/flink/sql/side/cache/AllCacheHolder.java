@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 持有当前使用的ALL缓存索引, reload时原子替换;
+ * 被替换的索引先放入retired, 由读取线程在下一次get时释放, 避免释放正在读取的堆外内存;
+ * 增量更新同样交给读取线程执行, 索引本身不需要线程安全
+ */
+
+public class AllCacheHolder<V> implements Serializable {
+
+    private static final long serialVersionUID = -4411046187416296937L;
+
+    private final AtomicReference<AllCacheIndex<V>> current = new AtomicReference<>();
+
+    private final AtomicReference<AllCacheIndex<V>> retired = new AtomicReference<>();
+
+    private final ConcurrentLinkedQueue<PendingUpdate<V>> updates = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 在处理数据的线程中调用
+     */
+    public AllCacheIndex<V> get() {
+        if (retired.get() != null) {
+            AllCacheIndex<V> old = retired.getAndSet(null);
+            if (old != null) {
+                old.release();
+            }
+        }
+
+        AllCacheIndex<V> index = current.get();
+        PendingUpdate<V> pending;
+        while ((pending = updates.poll()) != null) {
+            //提交后索引已经被整体替换的更新直接丢弃
+            if (pending.index == index) {
+                pending.update.accept(index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 在加载线程中调用, 更新作用于当前的索引, 在读取线程下一次get时执行
+     */
+    public void update(Consumer<AllCacheIndex<V>> update) {
+        AllCacheIndex<V> index = current.get();
+        if (index != null) {
+            updates.add(new PendingUpdate<>(index, update));
+        }
+    }
+
+    /**
+     * 在加载线程中调用; 读取线程一直没有取走上一个被替换的索引时(没有数据流入), 由这里释放
+     */
+    public void set(AllCacheIndex<V> index) {
+        AllCacheIndex<V> old = current.getAndSet(index);
+        updates.removeIf(pending -> pending.index != index);
+        if (old == null) {
+            return;
+        }
+
+        AllCacheIndex<V> previous = retired.getAndSet(old);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    public void release() {
+        updates.clear();
+
+        AllCacheIndex<V> old = retired.getAndSet(null);
+        if (old != null) {
+            old.release();
+        }
+
+        AllCacheIndex<V> index = current.getAndSet(null);
+        if (index != null) {
+            index.release();
+        }
+    }
+
+    private static final class PendingUpdate<V> {
+
+        private final AllCacheIndex<V> index;
+
+        private final Consumer<AllCacheIndex<V>> update;
+
+        private PendingUpdate(AllCacheIndex<V> index, Consumer<AllCacheIndex<V>> update) {
+            this.index = index;
+            this.update = update;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.enums.ECacheStorage;
+import org.apache.flink.types.Row;
+
+import java.util.List;
+
+/**
+ * ALL模式下维表全量数据按关联字段建立的索引的只读视图, 加载完成后通过AtomicReference发布, 之后只在处理数据的线程中读取;
+ * 加载时写入的索引见MutableAllCacheIndex
+ */
+
+public interface AllCacheIndex<V> {
+
+    /**
+     * 按输入数据中的关联字段查找, 没有关联到时返回null
+     */
+    List<V> get(Row input);
+
+    int size();
+
+    /**
+     * 释放索引占用的堆外内存, 堆内索引由gc回收
+     */
+    default void release() {
+    }
+
+    /**
+     * cacheStorage为offheap时数据存放在堆外; 否则单个整数关联字段时使用long为key的开放寻址索引, 其它使用HashMap
+     */
+    static MutableAllCacheIndex<Object[]> create(List<Integer> equalValIndex, boolean integralKey, String cacheStorage) {
+        if (ECacheStorage.OFFHEAP.name().equalsIgnoreCase(cacheStorage)) {
+            return new OffHeapAllCacheIndex(equalValIndex);
+        }
+
+        if (integralKey && equalValIndex.size() == 1) {
+            return new LongAllCacheIndex<>(equalValIndex.get(0));
+        }
+
+        return new HashAllCacheIndex<>(equalValIndex);
+    }
+
+    /**
+     * 增量更新只支持堆内索引, 选择规则与create相同
+     */
+    static UpdatableAllCacheIndex<Object[]> createUpdatable(List<Integer> equalValIndex, boolean integralKey) {
+        if (integralKey && equalValIndex.size() == 1) {
+            return new LongAllCacheIndex<>(equalValIndex.get(0));
+        }
+
+        return new HashAllCacheIndex<>(equalValIndex);
+    }
+}
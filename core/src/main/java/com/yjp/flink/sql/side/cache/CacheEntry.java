@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+/**
+ * 缓存中实际存放的数据, 记录每条缓存的刷新时间和过期时间
+ */
+
+class CacheEntry {
+
+    final CacheObj value;
+
+    final long expireTime;
+
+    /**
+     * 估算的占用字节数
+     */
+    final int weight;
+
+    private long refreshTime;
+
+    CacheEntry(CacheObj value, long refreshTime, long expireTime, int weight) {
+        this.value = value;
+        this.refreshTime = refreshTime;
+        this.expireTime = expireTime;
+        this.weight = weight;
+    }
+
+    synchronized boolean tryRefresh(long now, long retryInterval) {
+        if (now < refreshTime) {
+            return false;
+        }
+
+        refreshTime = now + retryInterval;
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+
+/**
+ * 堆外索引和快照文件共用的序列化格式: 每个值为[byte 类型][值], key按SideKey的规则规范化后写入
+ */
+
+final class CacheRowSerializer {
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_BYTE = 2;
+    private static final byte TYPE_SHORT = 3;
+    private static final byte TYPE_INT = 4;
+    private static final byte TYPE_LONG = 5;
+    private static final byte TYPE_FLOAT = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_BOOLEAN = 8;
+    private static final byte TYPE_TIMESTAMP = 9;
+    private static final byte TYPE_BINARY = 10;
+    private static final byte TYPE_DECIMAL = 11;
+
+    private CacheRowSerializer() {
+    }
+
+    static long hash(byte[] bytes, int length) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    static void writeKey(SideKey key, DataOutputSerializer out) throws IOException {
+        if (key instanceof SideKey.LongKey) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((SideKey.LongKey) key).getValue());
+        } else if (key instanceof SideKey.ObjectKey) {
+            writeValue(((SideKey.ObjectKey) key).getValue(), out, true);
+        } else {
+            for (Object value : ((SideKey.CompositeKey) key).getValues()) {
+                writeValue(value, out, true);
+            }
+        }
+    }
+
+    /**
+     * @param normalize 写入key时按SideKey.normalize规范化, 整数和整数字符串统一按long写入, 与SideKey的比较规则一致
+     */
+    static void writeValue(Object value, DataOutputSerializer out, boolean normalize) throws IOException {
+        if (normalize) {
+            value = SideKey.normalize(value);
+        }
+
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TYPE_STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (normalize && (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            out.writeByte(TYPE_BINARY);
+            out.writeInt(buffer.remaining());
+            while (buffer.hasRemaining()) {
+                out.writeByte(buffer.get());
+            }
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BINARY);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof BigDecimal) {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TYPE_DECIMAL);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            throw new IllegalArgumentException("not support serialized side cache value type: " + value.getClass());
+        }
+    }
+
+    static Object readValue(DataInputDeserializer in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case TYPE_BYTE:
+                return in.readByte();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            }
+            case TYPE_BINARY: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return ByteBuffer.wrap(bytes);
+            }
+            case TYPE_DECIMAL: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new BigDecimal(new String(bytes, StandardCharsets.UTF_8));
+            }
+            default:
+                throw new IllegalArgumentException("unknown serialized side cache value type: " + type);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 粗略估算缓存数据占用的堆内存字节数(64位jvm, 开启指针压缩), 用于按内存限制缓存大小
+ */
+
+final class CacheSizeEstimator {
+
+    private static final int OBJECT_HEADER = 16;
+
+    private static final int REFERENCE = 4;
+
+    private static final int HASH_MAP_ENTRY = 32;
+
+    private CacheSizeEstimator() {
+    }
+
+    static int estimate(SideKey key, CacheObj value) {
+        //CacheEntry + CacheObj
+        long size = 40 + 24 + key.estimateBytes();
+        if (value != null) {
+            size += estimateObject(value.getContent());
+        }
+
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private static long estimateObject(Object obj) {
+        if (obj == null) {
+            return 0;
+        }
+
+        if (obj instanceof String) {
+            return 40 + 2L * ((String) obj).length();
+        } else if (obj instanceof Long || obj instanceof Double) {
+            return 24;
+        } else if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character) {
+            return OBJECT_HEADER;
+        } else if (obj instanceof BigDecimal) {
+            return 64 + ((BigDecimal) obj).precision() / 2;
+        } else if (obj instanceof Date) {
+            return 32;
+        } else if (obj instanceof byte[]) {
+            return OBJECT_HEADER + ((byte[]) obj).length;
+        } else if (obj instanceof Object[]) {
+            Object[] array = (Object[]) obj;
+            long size = OBJECT_HEADER + (long) REFERENCE * array.length;
+            for (Object element : array) {
+                size += estimateObject(element);
+            }
+            return size;
+        } else if (obj instanceof Map) {
+            //key为各行共享的列名, 只计算引用
+            Map<?, ?> map = (Map<?, ?>) obj;
+            long size = 48 + (long) (HASH_MAP_ENTRY + 2 * REFERENCE) * map.size();
+            for (Object value : map.values()) {
+                size += estimateObject(value);
+            }
+            return size;
+        } else if (obj instanceof Collection) {
+            Collection<?> collection = (Collection<?>) obj;
+            long size = 40 + (long) REFERENCE * collection.size();
+            for (Object element : collection) {
+                size += estimateObject(element);
+            }
+            return size;
+        }
+
+        return OBJECT_HEADER;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
+import org.apache.flink.calcite.shaded.com.google.common.collect.Maps;
+import org.apache.flink.types.Row;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通用的索引, 关联字段值组成SideKey
+ */
+
+public class HashAllCacheIndex<V> implements UpdatableAllCacheIndex<V> {
+
+    private final List<Integer> equalValIndex;
+
+    private final Map<SideKey, List<V>> rows = Maps.newHashMap();
+
+    private int size;
+
+    public HashAllCacheIndex(List<Integer> equalValIndex) {
+        this.equalValIndex = equalValIndex;
+    }
+
+    @Override
+    public void add(SideKey key, V row) {
+        rows.computeIfAbsent(key, k -> Lists.newArrayList()).add(row);
+        size++;
+    }
+
+    @Override
+    public List<V> get(Row input) {
+        SideKey key = SideKey.of(input, equalValIndex);
+        return key == null ? null : rows.get(key);
+    }
+
+    @Override
+    public void remove(SideKey key, V row) {
+        List<V> list = rows.get(key);
+        if (list != null && list.remove(row)) {
+            size--;
+            if (list.isEmpty()) {
+                rows.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
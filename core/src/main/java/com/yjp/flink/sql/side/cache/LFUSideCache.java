@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.yjp.flink.sql.side.SideKey;
+import com.yjp.flink.sql.side.SideTableInfo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于Caffeine W-TinyLFU的缓存, 按访问频率决定是否淘汰, 一次性的冷key不会冲掉热点数据
+ */
+
+public class LFUSideCache extends AbsSideCache {
+
+    protected transient Cache<SideKey, CacheEntry> cache;
+
+    public LFUSideCache(SideTableInfo sideTableInfo) {
+        super(sideTableInfo);
+    }
+
+    @Override
+    public void initCache() {
+        //每条缓存按带抖动的过期时间淘汰
+        Caffeine<SideKey, CacheEntry> cacheBuilder = Caffeine.newBuilder()
+                .executor(Runnable::run)
+                .removalListener((SideKey key, CacheEntry entry, RemovalCause cause) -> onRemoval(entry))
+                .expireAfter(new Expiry<SideKey, CacheEntry>() {
+                    @Override
+                    public long expireAfterCreate(SideKey key, CacheEntry value, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expireTime - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(SideKey key, CacheEntry value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(SideKey key, CacheEntry value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                });
+        if (weighByBytes()) {
+            cacheBuilder.maximumWeight(sideTableInfo.getCacheMaxBytes())
+                    .weigher((SideKey key, CacheEntry entry) -> entry.weight);
+        } else {
+            cacheBuilder.maximumSize(sideTableInfo.getCacheSize());
+        }
+        cache = cacheBuilder.build();
+    }
+
+    @Override
+    public CacheObj getFromCache(SideKey key) {
+        if (cache == null) {
+            return null;
+        }
+
+        CacheEntry entry = cache.getIfPresent(key);
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    public void putCache(SideKey key, CacheObj value) {
+        if (cache == null) {
+            return;
+        }
+
+        cache.put(key, buildEntry(key, value));
+    }
+
+    @Override
+    public boolean needRefresh(SideKey key) {
+        if (cache == null) {
+            return false;
+        }
+
+        return tryRefresh(cache.getIfPresent(key));
+    }
+}
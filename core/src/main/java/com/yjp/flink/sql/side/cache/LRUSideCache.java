@@ -16,12 +16,14 @@
  * limitations under the License.
  */
 
-
 package com.yjp.flink.sql.side.cache;
 
+import com.yjp.flink.sql.side.SideKey;
 import com.yjp.flink.sql.side.SideTableInfo;
 import org.apache.flink.calcite.shaded.com.google.common.cache.Cache;
 import org.apache.flink.calcite.shaded.com.google.common.cache.CacheBuilder;
+import org.apache.flink.calcite.shaded.com.google.common.cache.RemovalListener;
+import org.apache.flink.calcite.shaded.com.google.common.cache.Weigher;
 
 import java.util.concurrent.TimeUnit;
 
@@ -35,7 +37,7 @@ import java.util.concurrent.TimeUnit;
 
 public class LRUSideCache extends AbsSideCache {
 
-    protected transient Cache<String, CacheObj> cache;
+    protected transient Cache<SideKey, CacheEntry> cache;
 
     public LRUSideCache(SideTableInfo sideTableInfo) {
         super(sideTableInfo);
@@ -43,28 +45,54 @@ public class LRUSideCache extends AbsSideCache {
 
     @Override
     public void initCache() {
-        //当前只有LRU
-        cache = CacheBuilder.newBuilder()
-                .maximumSize(sideTableInfo.getCacheSize())
+        //LRU淘汰, 每条缓存的过期时间带随机抖动, 不会超过cacheTTLMs
+        CacheBuilder<SideKey, CacheEntry> cacheBuilder = CacheBuilder.newBuilder()
                 .expireAfterWrite(sideTableInfo.getCacheTimeout(), TimeUnit.MILLISECONDS)
-                .build();
+                .removalListener((RemovalListener<SideKey, CacheEntry>) notification -> onRemoval(notification.getValue()));
+        if (weighByBytes()) {
+            cacheBuilder.maximumWeight(sideTableInfo.getCacheMaxBytes())
+                    .weigher((Weigher<SideKey, CacheEntry>) (key, entry) -> entry.weight);
+        } else {
+            cacheBuilder.maximumSize(sideTableInfo.getCacheSize());
+        }
+        cache = cacheBuilder.build();
     }
 
     @Override
-    public CacheObj getFromCache(String key) {
+    public CacheObj getFromCache(SideKey key) {
         if (cache == null) {
             return null;
         }
 
-        return cache.getIfPresent(key);
+        CacheEntry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() >= entry.expireTime) {
+            //只移除读到的过期数据, 不删除后台刷新刚写入的新数据
+            cache.asMap().remove(key, entry);
+            return null;
+        }
+
+        return entry.value;
     }
 
     @Override
-    public void putCache(String key, CacheObj value) {
+    public void putCache(SideKey key, CacheObj value) {
         if (cache == null) {
             return;
         }
 
-        cache.put(key, value);
+        cache.put(key, buildEntry(key, value));
+    }
+
+    @Override
+    public boolean needRefresh(SideKey key) {
+        if (cache == null) {
+            return false;
+        }
+
+        return tryRefresh(cache.getIfPresent(key));
     }
 }
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
+import org.apache.flink.types.Row;
+
+import java.util.List;
+
+/**
+ * 单个整数关联字段的索引, 查找时直接取输入字段的long值, 不生成key对象
+ */
+
+public class LongAllCacheIndex<V> implements UpdatableAllCacheIndex<V> {
+
+    private final int inputIndex;
+
+    private final LongHashMap<List<V>> rows = new LongHashMap<>();
+
+    private int size;
+
+    public LongAllCacheIndex(int inputIndex) {
+        this.inputIndex = inputIndex;
+    }
+
+    @Override
+    public void add(SideKey key, V row) {
+        long value = ((SideKey.LongKey) key).getValue();
+        List<V> list = rows.get(value);
+        if (list == null) {
+            list = Lists.newArrayListWithCapacity(1);
+            rows.put(value, list);
+        }
+        list.add(row);
+        size++;
+    }
+
+    @Override
+    public List<V> get(Row input) {
+        Object value = input.getField(inputIndex);
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return rows.get(((Number) value).longValue());
+        }
+
+        //varchar字段关联整数字段
+        Object keyValue = SideKey.normalize(value);
+        return keyValue instanceof Long ? rows.get((Long) keyValue) : null;
+    }
+
+    /**
+     * key下的数据移除完后删除整个key, 不保留空的list
+     */
+    @Override
+    public void remove(SideKey key, V row) {
+        long value = ((SideKey.LongKey) key).getValue();
+        List<V> list = rows.get(value);
+        if (list != null && list.remove(row)) {
+            size--;
+            if (list.isEmpty()) {
+                rows.remove(value);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.calcite.shaded.com.google.common.cache.Cache;
+import org.apache.flink.calcite.shaded.com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 维表中不存在的key单独缓存, 只保存key, 有自己的过期时间和容量, 不占用正常数据缓存的空间
+ */
+
+public class MissKeyCache {
+
+    private transient Cache<SideKey, Boolean> cache;
+
+    private final long missTimeout;
+
+    private final int missSize;
+
+    public MissKeyCache(long missTimeout, int missSize) {
+        this.missTimeout = missTimeout;
+        this.missSize = missSize;
+    }
+
+    public void initCache() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(missSize)
+                .expireAfterWrite(missTimeout, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public boolean contains(SideKey key) {
+        return cache != null && cache.getIfPresent(key) != null;
+    }
+
+    public void put(SideKey key) {
+        if (cache == null) {
+            return;
+        }
+
+        cache.put(key, Boolean.TRUE);
+    }
+
+    public void invalidate(SideKey key) {
+        if (cache == null) {
+            return;
+        }
+
+        cache.invalidate(key);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.core.memory.MemoryUtils;
+import org.apache.flink.types.Row;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 堆外内存存放的索引: 每行数据序列化后写入通过Unsafe申请的内存块, 哈希表也在堆外,
+ * 加载大维表时不占用堆内存, 替换缓存后需要调用release释放内存
+ * <p>
+ * 数据格式: [long 同key的下一条数据地址][int key长度][int 数据长度][key][数据]
+ * 哈希表每个槽位: [long key的hash][long 第一条数据地址][long 最后一条数据地址], 地址为0表示空槽位;
+ * 同一个key的数据追加到链表尾部, 与堆内索引一样按写入顺序返回
+ */
+
+public class OffHeapAllCacheIndex implements MutableAllCacheIndex<Object[]> {
+
+    @SuppressWarnings("restriction")
+    private static final sun.misc.Unsafe UNSAFE = MemoryUtils.UNSAFE;
+
+    private static final long BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+
+    private static final int CHUNK_SIZE = 32 * 1024 * 1024;
+
+    private static final int RECORD_HEADER = 16;
+
+    private static final int SLOT_SIZE = 24;
+
+    private final List<Integer> equalValIndex;
+
+    private final List<Long> chunks = Lists.newArrayList();
+
+    private long chunkAddress;
+
+    private long chunkOffset;
+
+    private long chunkEnd;
+
+    private long tableAddress;
+
+    private int capacity;
+
+    private int keyCount;
+
+    private int size;
+
+    private long allocatedBytes;
+
+    private volatile boolean released;
+
+    private final DataOutputSerializer writeBuffer = new DataOutputSerializer(256);
+
+    /**
+     * 查找时拼接key使用, 只在处理数据的线程中使用
+     */
+    private final DataOutputSerializer probeBuffer = new DataOutputSerializer(64);
+
+    private final DataInputDeserializer readBuffer = new DataInputDeserializer();
+
+    public OffHeapAllCacheIndex(List<Integer> equalValIndex) {
+        this.equalValIndex = equalValIndex;
+        allocateTable(1024);
+    }
+
+    @Override
+    public void add(SideKey key, Object[] row) {
+        try {
+            writeBuffer.clear();
+            CacheRowSerializer.writeKey(key, writeBuffer);
+            int keyLength = writeBuffer.length();
+            for (Object value : row) {
+                CacheRowSerializer.writeValue(value, writeBuffer, false);
+            }
+            int rowLength = writeBuffer.length() - keyLength;
+            byte[] bytes = writeBuffer.getSharedBuffer();
+
+            long hash = CacheRowSerializer.hash(bytes, keyLength);
+            int slot = findSlot(hash, bytes, keyLength);
+            long slotAddress = tableAddress + (long) slot * SLOT_SIZE;
+            long head = UNSAFE.getLong(slotAddress + 8);
+
+            long recordAddress = allocate(RECORD_HEADER + keyLength + rowLength);
+            UNSAFE.putLong(recordAddress, 0);
+            UNSAFE.putInt(recordAddress + 8, keyLength);
+            UNSAFE.putInt(recordAddress + 12, rowLength);
+            UNSAFE.copyMemory(bytes, BYTE_ARRAY_OFFSET, null, recordAddress + RECORD_HEADER, keyLength + rowLength);
+
+            if (head == 0) {
+                UNSAFE.putLong(slotAddress, hash);
+                UNSAFE.putLong(slotAddress + 8, recordAddress);
+            } else {
+                UNSAFE.putLong(UNSAFE.getLong(slotAddress + 16), recordAddress);
+            }
+            UNSAFE.putLong(slotAddress + 16, recordAddress);
+            size++;
+            if (head == 0 && ++keyCount > capacity >>> 1) {
+                resize();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("serialize side row to off-heap memory error.", e);
+        }
+    }
+
+    @Override
+    public List<Object[]> get(Row input) {
+        try {
+            probeBuffer.clear();
+            for (Integer index : equalValIndex) {
+                Object value = input.getField(index);
+                if (value == null) {
+                    return null;
+                }
+                CacheRowSerializer.writeValue(value, probeBuffer, true);
+            }
+            byte[] keyBytes = probeBuffer.getSharedBuffer();
+            int keyLength = probeBuffer.length();
+
+            long slotAddress = tableAddress + (long) findSlot(CacheRowSerializer.hash(keyBytes, keyLength), keyBytes, keyLength) * SLOT_SIZE;
+            long recordAddress = UNSAFE.getLong(slotAddress + 8);
+            if (recordAddress == 0) {
+                return null;
+            }
+
+            List<Object[]> rows = Lists.newArrayList();
+            while (recordAddress != 0) {
+                rows.add(readRow(recordAddress));
+                recordAddress = UNSAFE.getLong(recordAddress);
+            }
+            return rows;
+        } catch (IOException e) {
+            throw new RuntimeException("deserialize side row from off-heap memory error.", e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (Long chunk : chunks) {
+            UNSAFE.freeMemory(chunk);
+        }
+        chunks.clear();
+        UNSAFE.freeMemory(tableAddress);
+        allocatedBytes = 0;
+    }
+
+    /**
+     * 返回key所在的槽位, key不存在时返回应该插入的空槽位
+     */
+    private int findSlot(long hash, byte[] keyBytes, int keyLength) {
+        int mask = capacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (true) {
+            long slotAddress = tableAddress + (long) slot * SLOT_SIZE;
+            long recordAddress = UNSAFE.getLong(slotAddress + 8);
+            if (recordAddress == 0) {
+                return slot;
+            }
+            if (UNSAFE.getLong(slotAddress) == hash && keyEquals(recordAddress, keyBytes, keyLength)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(long recordAddress, byte[] keyBytes, int keyLength) {
+        if (UNSAFE.getInt(recordAddress + 8) != keyLength) {
+            return false;
+        }
+        long keyAddress = recordAddress + RECORD_HEADER;
+        for (int i = 0; i < keyLength; i++) {
+            if (UNSAFE.getByte(keyAddress + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object[] readRow(long recordAddress) throws IOException {
+        int keyLength = UNSAFE.getInt(recordAddress + 8);
+        int rowLength = UNSAFE.getInt(recordAddress + 12);
+        byte[] bytes = new byte[rowLength];
+        UNSAFE.copyMemory(null, recordAddress + RECORD_HEADER + keyLength, bytes, BYTE_ARRAY_OFFSET, rowLength);
+        readBuffer.setBuffer(bytes, 0, rowLength);
+
+        List<Object> values = Lists.newArrayList();
+        while (readBuffer.available() > 0) {
+            values.add(CacheRowSerializer.readValue(readBuffer));
+        }
+        return values.toArray();
+    }
+
+    private void resize() {
+        long oldTable = tableAddress;
+        int oldCapacity = capacity;
+        allocateTable(oldCapacity << 1);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long oldSlot = oldTable + (long) i * SLOT_SIZE;
+            long recordAddress = UNSAFE.getLong(oldSlot + 8);
+            if (recordAddress == 0) {
+                continue;
+            }
+            long hash = UNSAFE.getLong(oldSlot);
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (UNSAFE.getLong(tableAddress + (long) slot * SLOT_SIZE + 8) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            UNSAFE.copyMemory(oldSlot, tableAddress + (long) slot * SLOT_SIZE, SLOT_SIZE);
+        }
+        UNSAFE.freeMemory(oldTable);
+        allocatedBytes -= (long) oldCapacity * SLOT_SIZE;
+    }
+
+    private void allocateTable(int newCapacity) {
+        long bytes = (long) newCapacity * SLOT_SIZE;
+        tableAddress = UNSAFE.allocateMemory(bytes);
+        UNSAFE.setMemory(tableAddress, bytes, (byte) 0);
+        capacity = newCapacity;
+        allocatedBytes += bytes;
+    }
+
+    private long allocate(int length) {
+        if (chunkOffset + length > chunkEnd) {
+            int chunkSize = Math.max(CHUNK_SIZE, length);
+            chunkAddress = UNSAFE.allocateMemory(chunkSize);
+            chunks.add(chunkAddress);
+            chunkOffset = chunkAddress;
+            chunkEnd = chunkAddress + chunkSize;
+            allocatedBytes += chunkSize;
+        }
+        long address = chunkOffset;
+        chunkOffset += length;
+        return address;
+    }
+}
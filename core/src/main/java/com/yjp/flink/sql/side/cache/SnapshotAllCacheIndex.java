@@ -0,0 +1,403 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.types.Row;
+import org.apache.flink.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地快照文件的只读索引, 文件通过mmap映射, 同一台机器上的subtask(包括不同的TaskManager)共用操作系统的page cache;
+ * 快照在有效期内可以在作业重启后直接使用, 不需要重新扫描维表. 映射由gc回收, release不做处理
+ * <p>
+ * 文件格式: [int magic][int version][long 数据条数][long 索引位置][long 索引条数]
+ * 数据: [int key长度][int 数据长度][key][数据], 序列化格式与堆外索引相同
+ * 索引: [int key的hash][long 数据位置], 按hash排序, 查找时二分
+ */
+
+public class SnapshotAllCacheIndex implements AllCacheIndex<Object[]> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotAllCacheIndex.class);
+
+    private static final int MAGIC = 0x59534E50;
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    private static final int SEGMENT_BITS = 30;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /**
+     * 同一个JVM中的线程不能同时持有同一个文件的FileLock, 先在进程内加锁
+     */
+    private static final ConcurrentHashMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * get在处理数据的线程中逐条调用, 序列化查找key的buffer按线程复用
+     */
+    private static final ThreadLocal<DataOutputSerializer> PROBE_BUFFER = ThreadLocal.withInitial(() -> new DataOutputSerializer(64));
+
+    private final List<Integer> equalValIndex;
+
+    private final MappedByteBuffer[] segments;
+
+    private final int size;
+
+    private final long indexOffset;
+
+    private final long indexCount;
+
+    private SnapshotAllCacheIndex(List<Integer> equalValIndex, MappedByteBuffer[] segments, int size, long indexOffset, long indexCount) {
+        this.equalValIndex = equalValIndex;
+        this.segments = segments;
+        this.size = size;
+        this.indexOffset = indexOffset;
+        this.indexCount = indexCount;
+    }
+
+    /**
+     * 快照文件在有效期内直接映射; 否则加文件锁, 由一个加载者通过source写入新的快照, 等待锁的其它subtask拿到锁后发现快照已更新, 直接映射
+     *
+     * @param snapshotDir   快照文件目录, 可以是多台机器共用的目录
+     * @param snapshotKey   维表数据的标识, 相同标识的数据写入同一个文件
+     * @param ttlMs         快照的有效期
+     * @param equalValIndex 关联字段在输入数据中的位置
+     * @param source        快照过期时加载维表数据
+     */
+    public static SnapshotAllCacheIndex loadOrCreate(String snapshotDir, String snapshotKey, long ttlMs, List<Integer> equalValIndex,
+                                                     SnapshotSource source) throws Exception {
+        File dir = new File(snapshotDir);
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("can't create side snapshot dir " + snapshotDir);
+        }
+
+        String fileName = digest(snapshotKey);
+        File snapshotFile = new File(dir, fileName + ".snapshot");
+        synchronized (LOCKS.computeIfAbsent(snapshotFile.getAbsolutePath(), k -> new Object())) {
+            try (FileChannel lockChannel = FileChannel.open(new File(dir, fileName + ".lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                if (isFresh(snapshotFile, ttlMs)) {
+                    SnapshotAllCacheIndex index = tryOpen(snapshotFile, equalValIndex);
+                    if (index != null) {
+                        LOG.info("reuse side snapshot {} with {} rows", snapshotFile, index.size());
+                        return index;
+                    }
+                }
+
+                long startTime = System.currentTimeMillis();
+                File tmpFile = new File(dir, fileName + ".snapshot.tmp-" + UUID.randomUUID());
+                try {
+                    try (Writer writer = new Writer(tmpFile)) {
+                        source.writeTo(writer);
+                    }
+                    Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tmpFile.toPath());
+                }
+
+                SnapshotAllCacheIndex index = tryOpen(snapshotFile, equalValIndex);
+                if (index == null) {
+                    throw new IOException("side snapshot " + snapshotFile + " is broken after write");
+                }
+                LOG.info("write side snapshot {} with {} rows, cost {} ms", snapshotFile, index.size(), System.currentTimeMillis() - startTime);
+                return index;
+            }
+        }
+    }
+
+    /**
+     * 只读映射, 可以在多个线程中同时调用; 查找用的key在线程内复用的buffer中序列化, 与映射中的数据直接逐字节比较
+     */
+    @Override
+    public List<Object[]> get(Row input) {
+        try {
+            DataOutputSerializer probeBuffer = PROBE_BUFFER.get();
+            probeBuffer.clear();
+            for (Integer index : equalValIndex) {
+                Object value = input.getField(index);
+                if (value == null) {
+                    return null;
+                }
+                CacheRowSerializer.writeValue(value, probeBuffer, true);
+            }
+            byte[] keyBytes = probeBuffer.getSharedBuffer();
+            int keyLength = probeBuffer.length();
+            int hash = hash32(CacheRowSerializer.hash(keyBytes, keyLength));
+
+            long low = 0;
+            long high = indexCount;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (getInt(indexOffset + mid * INDEX_ENTRY_SIZE) < hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            List<Object[]> rows = null;
+            for (long i = low; i < indexCount && getInt(indexOffset + i * INDEX_ENTRY_SIZE) == hash; i++) {
+                long recordOffset = getLong(indexOffset + i * INDEX_ENTRY_SIZE + 4);
+                if (getInt(recordOffset) != keyLength) {
+                    continue;
+                }
+                if (!keyEquals(recordOffset, keyBytes, keyLength)) {
+                    continue;
+                }
+                if (rows == null) {
+                    rows = Lists.newArrayList();
+                }
+                rows.add(readRow(recordOffset, keyLength));
+            }
+            return rows;
+        } catch (IOException e) {
+            throw new RuntimeException("deserialize side row from snapshot error.", e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private boolean keyEquals(long recordOffset, byte[] keyBytes, int keyLength) {
+        long keyOffset = recordOffset + 8;
+        for (int i = 0; i < keyLength; i++) {
+            if (getByte(keyOffset + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte getByte(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    private Object[] readRow(long recordOffset, int keyLength) throws IOException {
+        byte[] bytes = new byte[getInt(recordOffset + 4)];
+        read(recordOffset + 8 + keyLength, bytes);
+        DataInputDeserializer readBuffer = new DataInputDeserializer(bytes);
+        List<Object> values = Lists.newArrayList();
+        while (readBuffer.available() > 0) {
+            values.add(CacheRowSerializer.readValue(readBuffer));
+        }
+        return values.toArray();
+    }
+
+    private int getInt(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset + 4 <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        byte[] bytes = new byte[4];
+        read(position, bytes);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    private long getLong(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset + 8 <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        byte[] bytes = new byte[8];
+        read(position, bytes);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    /**
+     * 数据可能跨越两个映射段
+     */
+    private void read(long position, byte[] dst) {
+        int copied = 0;
+        while (copied < dst.length) {
+            long current = position + copied;
+            ByteBuffer segment = segments[(int) (current >>> SEGMENT_BITS)].duplicate();
+            segment.position((int) (current & SEGMENT_MASK));
+            int length = Math.min(segment.remaining(), dst.length - copied);
+            segment.get(dst, copied, length);
+            copied += length;
+        }
+    }
+
+    private static boolean isFresh(File snapshotFile, long ttlMs) {
+        return snapshotFile.isFile() && System.currentTimeMillis() - snapshotFile.lastModified() < ttlMs;
+    }
+
+    /**
+     * 文件不完整或版本不一致时返回null
+     */
+    private static SnapshotAllCacheIndex tryOpen(File snapshotFile, List<Integer> equalValIndex) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                return null;
+            }
+
+            int segmentCount = (int) ((fileSize + SEGMENT_MASK) >>> SEGMENT_BITS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, fileSize - start));
+            }
+
+            MappedByteBuffer header = segments[0];
+            long rowCount = header.getLong(8);
+            long indexOffset = header.getLong(16);
+            long indexCount = header.getLong(24);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || indexOffset + indexCount * INDEX_ENTRY_SIZE != fileSize) {
+                LOG.warn("side snapshot {} is broken, rebuild it", snapshotFile);
+                return null;
+            }
+            return new SnapshotAllCacheIndex(equalValIndex, segments, (int) rowCount, indexOffset, indexCount);
+        }
+    }
+
+    private static int hash32(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static String digest(String snapshotKey) throws Exception {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+        return StringUtils.byteToHexString(messageDigest.digest(snapshotKey.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 快照过期时写入维表的全部数据
+     */
+    @FunctionalInterface
+    public interface SnapshotSource {
+
+        void writeTo(Writer writer) throws Exception;
+    }
+
+    /**
+     * 顺序写入数据, 内存中只保存每条数据的hash和位置, close时排序后写入索引和文件头
+     */
+    public static class Writer implements AutoCloseable {
+
+        private final File file;
+
+        private final DataOutputStream out;
+
+        private final DataOutputSerializer writeBuffer = new DataOutputSerializer(256);
+
+        /**
+         * 高32位为key的hash, 低32位为数据的序号, 排序后同一个key的数据保持写入顺序
+         */
+        private long[] entries = new long[1024];
+
+        private long[] offsets = new long[1024];
+
+        private int count;
+
+        private long position = HEADER_SIZE;
+
+        private Writer(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            out.write(new byte[HEADER_SIZE]);
+        }
+
+        public void add(SideKey key, Object[] row) {
+            try {
+                writeBuffer.clear();
+                CacheRowSerializer.writeKey(key, writeBuffer);
+                int keyLength = writeBuffer.length();
+                for (Object value : row) {
+                    CacheRowSerializer.writeValue(value, writeBuffer, false);
+                }
+                int rowLength = writeBuffer.length() - keyLength;
+                byte[] bytes = writeBuffer.getSharedBuffer();
+
+                if (count == entries.length) {
+                    entries = Arrays.copyOf(entries, count << 1);
+                    offsets = Arrays.copyOf(offsets, count << 1);
+                }
+                int hash = hash32(CacheRowSerializer.hash(bytes, keyLength));
+                entries[count] = ((long) hash << 32) | count;
+                offsets[count] = position;
+                count++;
+
+                out.writeInt(keyLength);
+                out.writeInt(rowLength);
+                out.write(bytes, 0, keyLength + rowLength);
+                position += 8 + keyLength + rowLength;
+            } catch (IOException e) {
+                throw new RuntimeException("write side snapshot " + file + " error.", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            long indexOffset = position;
+            Arrays.sort(entries, 0, count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    out.writeInt((int) (entries[i] >> 32));
+                    out.writeLong(offsets[(int) entries[i]]);
+                }
+            } finally {
+                out.close();
+            }
+
+            try (RandomAccessFile headerFile = new RandomAccessFile(file, "rw")) {
+                headerFile.writeInt(MAGIC);
+                headerFile.writeInt(VERSION);
+                headerFile.writeLong(count);
+                headerFile.writeLong(indexOffset);
+                headerFile.writeLong(count);
+                headerFile.getFD().sync();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import com.yjp.flink.sql.side.SideTableInfo;
+import org.apache.flink.calcite.shaded.com.google.common.cache.Cache;
+import org.apache.flink.calcite.shaded.com.google.common.cache.CacheBuilder;
+import org.apache.flink.calcite.shaded.com.google.common.cache.RemovalListener;
+import org.apache.flink.calcite.shaded.com.google.common.cache.Weigher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * asyncTimeoutPolicy为STALE时保存每个key最后一次查询到的数据, 不随cacheTTLMs过期, 与主缓存一样按cacheMaxBytes或cacheSize淘汰;
+ * 查询超时或失败时用它输出, 正常的缓存过期后仍然可以读到
+ */
+
+public class StaleValueCache {
+
+    private transient Cache<SideKey, CacheObj> cache;
+
+    private final SideTableInfo sideTableInfo;
+
+    /**
+     * 估算占用的字节数; 与主缓存中相同的数据是同一个对象, 两边都会计算
+     */
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    public StaleValueCache(SideTableInfo sideTableInfo) {
+        this.sideTableInfo = sideTableInfo;
+    }
+
+    public void initCache() {
+        CacheBuilder<SideKey, CacheObj> cacheBuilder = CacheBuilder.newBuilder()
+                .removalListener((RemovalListener<SideKey, CacheObj>) notification ->
+                        estimatedBytes.addAndGet(-CacheSizeEstimator.estimate(notification.getKey(), notification.getValue())));
+        if (sideTableInfo.getCacheMaxBytes() > 0) {
+            cacheBuilder.maximumWeight(sideTableInfo.getCacheMaxBytes())
+                    .weigher((Weigher<SideKey, CacheObj>) CacheSizeEstimator::estimate);
+        } else {
+            cacheBuilder.maximumSize(sideTableInfo.getCacheSize());
+        }
+        cache = cacheBuilder.build();
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+    public CacheObj get(SideKey key) {
+        return cache == null ? null : cache.getIfPresent(key);
+    }
+
+    public void put(SideKey key, CacheObj value) {
+        if (cache == null) {
+            return;
+        }
+
+        estimatedBytes.addAndGet(CacheSizeEstimator.estimate(key, value));
+        cache.put(key, value);
+    }
+
+    public void invalidate(SideKey key) {
+        if (cache == null) {
+            return;
+        }
+
+        cache.invalidate(key);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+
+/**
+ * 支持增量更新的索引, 加载完成后只在处理数据的线程中add和remove; 配置了增量字段时使用
+ */
+
+public interface UpdatableAllCacheIndex<V> extends MutableAllCacheIndex<V> {
+
+    /**
+     * 增量更新时移除旧数据, 按equals匹配(Object[]即同一个对象); key下没有数据后删除该key
+     */
+    void remove(SideKey key, V row);
+}
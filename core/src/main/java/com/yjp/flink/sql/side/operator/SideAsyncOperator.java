@@ -20,6 +20,7 @@
 package com.yjp.flink.sql.side.operator;
 
 import com.yjp.flink.sql.classloader.YjpClassLoader;
+import com.yjp.flink.sql.enums.EAsyncMode;
 import com.yjp.flink.sql.side.AsyncReqRow;
 import com.yjp.flink.sql.side.FieldInfo;
 import com.yjp.flink.sql.side.JoinInfo;
@@ -45,9 +46,6 @@ public class SideAsyncOperator {
 
     private static final String PATH_FORMAT = "%sasyncside";
 
-    //TODO need to set by create table task
-    private static int asyncCapacity = 100;
-
     private static AsyncReqRow loadAsyncReq(String sideType, String sqlRootDir, RowTypeInfo rowTypeInfo,
                                             JoinInfo joinInfo, List<FieldInfo> outFieldInfoList, SideTableInfo sideTableInfo) throws Exception {
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
@@ -63,8 +61,14 @@ public class SideAsyncOperator {
     public static DataStream getSideJoinDataStream(DataStream inputStream, String sideType, String sqlRootDir, RowTypeInfo rowTypeInfo, JoinInfo joinInfo,
                                                    List<FieldInfo> outFieldInfoList, SideTableInfo sideTableInfo) throws Exception {
         AsyncReqRow asyncDbReq = loadAsyncReq(sideType, sqlRootDir, rowTypeInfo, joinInfo, outFieldInfoList, sideTableInfo);
-        //TODO How much should be set for the degree of parallelism? Timeout? capacity settings?
-        return AsyncDataStream.orderedWait(inputStream, asyncDbReq, 10000, TimeUnit.MILLISECONDS, asyncCapacity)
+        long asyncTimeout = sideTableInfo.getAsyncTimeout();
+        int asyncCapacity = sideTableInfo.getAsyncCapacity();
+        if (EAsyncMode.UNORDERED.name().equalsIgnoreCase(sideTableInfo.getAsyncMode())) {
+            return AsyncDataStream.unorderedWait(inputStream, asyncDbReq, asyncTimeout, TimeUnit.MILLISECONDS, asyncCapacity)
+                    .setParallelism(sideTableInfo.getParallelism());
+        }
+
+        return AsyncDataStream.orderedWait(inputStream, asyncDbReq, asyncTimeout, TimeUnit.MILLISECONDS, asyncCapacity)
                 .setParallelism(sideTableInfo.getParallelism());
     }
 }
@@ -19,7 +19,10 @@
 
 package com.yjp.flink.sql.table;
 
+import com.yjp.flink.sql.enums.EAsyncMode;
+import com.yjp.flink.sql.enums.ECacheStorage;
 import com.yjp.flink.sql.enums.ECacheType;
+import com.yjp.flink.sql.enums.ETimeoutPolicy;
 import com.yjp.flink.sql.side.SideTableInfo;
 import com.yjp.flink.sql.util.MathUtil;
 
@@ -50,6 +53,13 @@ public abstract class AbsSideTableParser extends AbsTableParser {
         //FIXME SIDE_TABLE_SIGN current just used as a sign for side table; and do nothing
     }
 
+    /**
+     * HYBRID缓存需要插件的异步查询实现HybridSideSupport, 支持的插件覆盖此方法, 在解析时提前报错
+     */
+    protected boolean supportHybridCache() {
+        return false;
+    }
+
     //Analytical create table attributes ==> Get information cache
     protected void parseCacheProp(SideTableInfo sideTableInfo, Map<String, Object> props) {
         if (props.containsKey(SideTableInfo.CACHE_KEY.toLowerCase())) {
@@ -62,6 +72,10 @@ public abstract class AbsSideTableParser extends AbsTableParser {
                 throw new RuntimeException("can't not support cache type :" + cacheType);
             }
 
+            if (ECacheType.HYBRID.name().equalsIgnoreCase(cacheType) && !supportHybridCache()) {
+                throw new RuntimeException("side table " + sideTableInfo.getName() + " can't not support cache type :" + cacheType);
+            }
+
             sideTableInfo.setCacheType(cacheType);
             if (props.containsKey(SideTableInfo.CACHE_SIZE_KEY.toLowerCase())) {
                 Integer cacheSize = MathUtil.getIntegerVal(props.get(SideTableInfo.CACHE_SIZE_KEY.toLowerCase()));
@@ -79,12 +93,106 @@ public abstract class AbsSideTableParser extends AbsTableParser {
                 sideTableInfo.setCacheTimeout(cacheTTLMS);
             }
 
+            if (props.containsKey(SideTableInfo.CACHE_MISS_TTLMS_KEY.toLowerCase())) {
+                Long cacheMissTTLMs = MathUtil.getLongVal(props.get(SideTableInfo.CACHE_MISS_TTLMS_KEY.toLowerCase()));
+                if (cacheMissTTLMs < 1000) {
+                    throw new RuntimeException("cache miss time out need > 1000 ms.");
+                }
+                sideTableInfo.setCacheMissTimeout(cacheMissTTLMs);
+            }
+
+            if (props.containsKey(SideTableInfo.CACHE_MISS_SIZE_KEY.toLowerCase())) {
+                Integer cacheMissSize = MathUtil.getIntegerVal(props.get(SideTableInfo.CACHE_MISS_SIZE_KEY.toLowerCase()));
+                if (cacheMissSize <= 0) {
+                    throw new RuntimeException("cache miss size need > 0.");
+                }
+                sideTableInfo.setCacheMissSize(cacheMissSize);
+            }
+
+            if (props.containsKey(SideTableInfo.CACHE_MAX_BYTES_KEY.toLowerCase())) {
+                Long cacheMaxBytes = MathUtil.getLongVal(props.get(SideTableInfo.CACHE_MAX_BYTES_KEY.toLowerCase()));
+                if (cacheMaxBytes <= 0) {
+                    throw new RuntimeException("cache max bytes need > 0.");
+                }
+                sideTableInfo.setCacheMaxBytes(cacheMaxBytes);
+            }
+
+            if (props.containsKey(SideTableInfo.CACHE_REFRESH_MS_KEY.toLowerCase())) {
+                Long cacheRefreshMs = MathUtil.getLongVal(props.get(SideTableInfo.CACHE_REFRESH_MS_KEY.toLowerCase()));
+                if (cacheRefreshMs <= 0 || cacheRefreshMs >= sideTableInfo.getCacheTimeout()) {
+                    throw new RuntimeException("cache refresh time need > 0 ms and < cache time out.");
+                }
+                sideTableInfo.setCacheRefreshMs(cacheRefreshMs);
+            }
+
+            if (props.containsKey(SideTableInfo.CACHE_JITTER_RATIO_KEY.toLowerCase())) {
+                Double cacheJitterRatio = MathUtil.getDoubleVal(props.get(SideTableInfo.CACHE_JITTER_RATIO_KEY.toLowerCase()));
+                if (cacheJitterRatio < 0 || cacheJitterRatio >= 1) {
+                    throw new RuntimeException("cache jitter ratio need >= 0 and < 1.");
+                }
+                sideTableInfo.setCacheJitterRatio(cacheJitterRatio);
+            }
+
+            if (props.containsKey(SideTableInfo.CACHE_STORAGE_KEY.toLowerCase())) {
+                String cacheStorage = MathUtil.getString(props.get(SideTableInfo.CACHE_STORAGE_KEY.toLowerCase()));
+                if (!ECacheStorage.isValid(cacheStorage)) {
+                    throw new RuntimeException("can't not support cache storage :" + cacheStorage);
+                }
+                if (!ECacheStorage.HEAP.name().equalsIgnoreCase(cacheStorage) && !ECacheType.ALL.name().equalsIgnoreCase(cacheType)) {
+                    throw new RuntimeException(cacheStorage + " cache storage only support cache type ALL.");
+                }
+                sideTableInfo.setCacheStorage(cacheStorage);
+            }
+
+            if (props.containsKey(SideTableInfo.CACHE_SNAPSHOT_DIR_KEY.toLowerCase())) {
+                sideTableInfo.setCacheSnapshotDir(MathUtil.getString(props.get(SideTableInfo.CACHE_SNAPSHOT_DIR_KEY.toLowerCase())));
+            }
+
             if (props.containsKey(SideTableInfo.PARTITIONED_JOIN_KEY.toLowerCase())) {
                 Boolean partitionedJoinKey = MathUtil.getBoolean(props.get(SideTableInfo.PARTITIONED_JOIN_KEY.toLowerCase()));
                 if (partitionedJoinKey) {
                     sideTableInfo.setPartitionedJoin(true);
                 }
             }
+
+            if (props.containsKey(SideTableInfo.CACHE_SHARED_KEY.toLowerCase())) {
+                sideTableInfo.setCacheShared(MathUtil.getBoolean(props.get(SideTableInfo.CACHE_SHARED_KEY.toLowerCase())));
+            }
+        }
+    }
+
+    //Analytical create table attributes ==> Get async lookup mode, capacity and timeout
+    protected void parseAsyncProp(SideTableInfo sideTableInfo, Map<String, Object> props) {
+        if (props.containsKey(SideTableInfo.ASYNC_MODE_KEY.toLowerCase())) {
+            String asyncMode = MathUtil.getString(props.get(SideTableInfo.ASYNC_MODE_KEY.toLowerCase()));
+            if (!EAsyncMode.isValid(asyncMode)) {
+                throw new RuntimeException("can't not support async mode :" + asyncMode);
+            }
+            sideTableInfo.setAsyncMode(asyncMode);
+        }
+
+        if (props.containsKey(SideTableInfo.ASYNC_CAPACITY_KEY.toLowerCase())) {
+            Integer asyncCapacity = MathUtil.getIntegerVal(props.get(SideTableInfo.ASYNC_CAPACITY_KEY.toLowerCase()));
+            if (asyncCapacity <= 0) {
+                throw new RuntimeException("async capacity need > 0.");
+            }
+            sideTableInfo.setAsyncCapacity(asyncCapacity);
+        }
+
+        if (props.containsKey(SideTableInfo.ASYNC_TIMEOUT_KEY.toLowerCase())) {
+            Long asyncTimeout = MathUtil.getLongVal(props.get(SideTableInfo.ASYNC_TIMEOUT_KEY.toLowerCase()));
+            if (asyncTimeout <= 0) {
+                throw new RuntimeException("async time out need > 0 ms.");
+            }
+            sideTableInfo.setAsyncTimeout(asyncTimeout);
+        }
+
+        if (props.containsKey(SideTableInfo.ASYNC_TIMEOUT_POLICY_KEY.toLowerCase())) {
+            String asyncTimeoutPolicy = MathUtil.getString(props.get(SideTableInfo.ASYNC_TIMEOUT_POLICY_KEY.toLowerCase()));
+            if (!ETimeoutPolicy.isValid(asyncTimeoutPolicy)) {
+                throw new RuntimeException("can't not support async timeout policy :" + asyncTimeoutPolicy);
+            }
+            sideTableInfo.setAsyncTimeoutPolicy(asyncTimeoutPolicy);
         }
     }
 }
@@ -66,6 +66,22 @@ public class MathUtil {
         throw new RuntimeException("not support type of " + obj.getClass() + " convert to Integer." );
     }
 
+    public static Double getDoubleVal(Object obj){
+        if(obj == null){
+            return null;
+        }
+
+        if(obj instanceof String){
+            return Double.valueOf((String) obj);
+        } else if (obj instanceof Double){
+            return (Double) obj;
+        } else if (obj instanceof Number){
+            return ((Number)obj).doubleValue();
+        }
+
+        throw new RuntimeException("not support type of " + obj.getClass() + " convert to Double." );
+    }
+
     public static Boolean getBoolean(Object obj, boolean defaultVal){
         if(obj == null){
             return defaultVal;
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CacheRowSerializerTest {
+
+    @Test
+    public void roundTripEveryType() throws Exception {
+        Timestamp timestamp = new Timestamp(1571280000123L);
+        timestamp.setNanos(123456789);
+        Object[] row = {null, "维表abc", (byte) -3, (short) 1234, 123456, Long.MIN_VALUE, 1.5f, -2.25d, true,
+                timestamp, new BigDecimal("-12345678901234567890.000123")};
+
+        Object[] result = roundTrip(row);
+
+        assertArrayEquals(row, result);
+        for (int i = 1; i < row.length; i++) {
+            assertEquals(row[i].getClass(), result[i].getClass());
+        }
+    }
+
+    @Test
+    public void binaryIsReadAsByteBuffer() throws Exception {
+        byte[] bytes = {1, 2, 3, -1};
+
+        Object[] result = roundTrip(new Object[]{bytes, ByteBuffer.wrap(bytes)});
+
+        assertEquals(ByteBuffer.wrap(bytes), result[0]);
+        assertEquals(ByteBuffer.wrap(bytes), result[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedTypeIsRejected() throws Exception {
+        roundTrip(new Object[]{new Object()});
+    }
+
+    @Test
+    public void keyBytesFollowSideKeyEquality() throws Exception {
+        assertArrayEquals(keyBytes(SideKey.of(7)), valueBytes(7L));
+        assertArrayEquals(keyBytes(SideKey.of("7")), valueBytes((short) 7));
+        assertArrayEquals(keyBytes(SideKey.of(new Object[]{1, "a"})), concat(valueBytes(1L), valueBytes("a")));
+        assertFalse(java.util.Arrays.equals(keyBytes(SideKey.of("07")), valueBytes(7L)));
+    }
+
+    private static Object[] roundTrip(Object[] row) throws Exception {
+        DataOutputSerializer out = new DataOutputSerializer(64);
+        for (Object value : row) {
+            CacheRowSerializer.writeValue(value, out, false);
+        }
+
+        DataInputDeserializer in = new DataInputDeserializer(out.getCopyOfBuffer());
+        Object[] result = new Object[row.length];
+        for (int i = 0; i < row.length; i++) {
+            result[i] = CacheRowSerializer.readValue(in);
+        }
+        assertEquals(0, in.available());
+        return result;
+    }
+
+    private static byte[] keyBytes(SideKey key) throws Exception {
+        DataOutputSerializer out = new DataOutputSerializer(64);
+        CacheRowSerializer.writeKey(key, out);
+        return out.getCopyOfBuffer();
+    }
+
+    private static byte[] valueBytes(Object value) throws Exception {
+        DataOutputSerializer out = new DataOutputSerializer(64);
+        CacheRowSerializer.writeValue(value, out, true);
+        return out.getCopyOfBuffer();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.enums.ECacheContentType;
+import com.yjp.flink.sql.side.SideKey;
+import com.yjp.flink.sql.side.SideTableInfo;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用带一次性扫描key的zipf分布访问序列比较LFU和LRU缓存的命中率
+ */
+
+public class LFUSideCacheTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LFUSideCacheTest.class);
+
+    private static final int CACHE_SIZE = 500;
+
+    private static final int HOT_KEYS = 5000;
+
+    private static final int REQUESTS = 200000;
+
+    /**
+     * 访问中一次性key(只出现一次, 如全表扫描或随机id)的比例
+     */
+    private static final double SCAN_RATIO = 0.3;
+
+    /**
+     * 这个访问序列上LRU约为0.32, 只缓存最热的CACHE_SIZE个key的命中率约为0.46; LFU至少要比LRU高出的命中率
+     */
+    private static final double MIN_HIT_RATE_GAIN = 0.05;
+
+    @Test
+    public void lfuHitRateBeatsLruOnScans() {
+        long[] trace = skewedTrace(new Random(42));
+
+        double lruHitRate = hitRate(new LRUSideCache(sideTableInfo()), trace);
+        double lfuHitRate = hitRate(new LFUSideCache(sideTableInfo()), trace);
+        LOG.info("hit rate on zipf trace with {} one-off keys: lru {}, lfu {}", SCAN_RATIO, lruHitRate, lfuHitRate);
+
+        assertTrue("lfu hit rate " + lfuHitRate + " is not " + MIN_HIT_RATE_GAIN + " higher than lru " + lruHitRate,
+                lfuHitRate >= lruHitRate + MIN_HIT_RATE_GAIN);
+    }
+
+    private static double hitRate(AbsSideCache cache, long[] trace) {
+        cache.initCache();
+        int hits = 0;
+        for (long id : trace) {
+            SideKey key = SideKey.of(id);
+            if (cache.getFromCache(key) != null) {
+                hits++;
+            } else {
+                cache.putCache(key, CacheObj.buildCacheObj(ECacheContentType.SingleLine, new Object[]{id}));
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    /**
+     * 热点key服从s=0.9的zipf分布, 一次性key从HOT_KEYS开始递增
+     */
+    private static long[] skewedTrace(Random random) {
+        double[] cdf = new double[HOT_KEYS];
+        double sum = 0;
+        for (int i = 0; i < HOT_KEYS; i++) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cdf[i] = sum;
+        }
+
+        long[] trace = new long[REQUESTS];
+        long scanKey = HOT_KEYS;
+        for (int i = 0; i < REQUESTS; i++) {
+            if (random.nextDouble() < SCAN_RATIO) {
+                trace[i] = scanKey++;
+            } else {
+                int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                trace[i] = index >= 0 ? index : -index - 1;
+            }
+        }
+        return trace;
+    }
+
+    private static SideTableInfo sideTableInfo() {
+        SideTableInfo sideTableInfo = new SideTableInfo() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean check() {
+                return true;
+            }
+        };
+        sideTableInfo.setCacheSize(CACHE_SIZE);
+        return sideTableInfo;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.types.Row;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LongAllCacheIndexTest {
+
+    @Test
+    public void severalRowsPerKey() {
+        LongAllCacheIndex<Object[]> index = new LongAllCacheIndex<>(0);
+        Object[] first = {1L, "a"};
+        Object[] second = {1L, "b"};
+        Object[] other = {2L, "c"};
+        index.add(SideKey.of(1L), first);
+        index.add(SideKey.of(1L), second);
+        index.add(SideKey.of(2L), other);
+
+        List<Object[]> rows = index.get(Row.of(1));
+        assertEquals(2, rows.size());
+        assertSame(first, rows.get(0));
+        assertSame(second, rows.get(1));
+        assertEquals(1, index.get(Row.of(2L)).size());
+        assertNull(index.get(Row.of(3L)));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void removingLastRowDropsKey() {
+        LongAllCacheIndex<Object[]> index = new LongAllCacheIndex<>(0);
+        Object[] first = {1L, "a"};
+        Object[] second = {1L, "b"};
+        index.add(SideKey.of(1L), first);
+        index.add(SideKey.of(1L), second);
+
+        index.remove(SideKey.of(1L), first);
+        assertEquals(1, index.get(Row.of(1L)).size());
+        index.remove(SideKey.of(1L), second);
+        assertNull(index.get(Row.of(1L)));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void integerStringInputMatchesIntegralKey() {
+        LongAllCacheIndex<Object[]> index = new LongAllCacheIndex<>(0);
+        index.add(SideKey.of(123), new Object[]{123});
+
+        assertEquals(1, index.get(Row.of("123")).size());
+        assertNull(index.get(Row.of("0123")));
+        assertNull(index.get(Row.of((Object) null)));
+    }
+}
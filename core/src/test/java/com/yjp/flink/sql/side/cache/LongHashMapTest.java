@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LongHashMapTest {
+
+    @Test
+    public void putAndGet() {
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(1L, "a");
+        map.put(-1L, "b");
+        map.put(0L, "c");
+        map.put(Long.MIN_VALUE, "d");
+        map.put(Long.MAX_VALUE, "e");
+
+        assertEquals("a", map.get(1L));
+        assertEquals("b", map.get(-1L));
+        assertEquals("c", map.get(0L));
+        assertEquals("d", map.get(Long.MIN_VALUE));
+        assertEquals("e", map.get(Long.MAX_VALUE));
+        assertNull(map.get(2L));
+        assertEquals(5, map.size());
+    }
+
+    @Test
+    public void putOverwritesExistingKey() {
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(7L, "a");
+        map.put(7L, "b");
+
+        assertEquals("b", map.get(7L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void rehashKeepsAllEntries() {
+        LongHashMap<Long> map = new LongHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextLong();
+            map.put(key, i * 2L);
+            expected.put(key, i * 2L);
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            long key = random.nextLong();
+            if (!expected.containsKey(key)) {
+                assertNull(map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void removeKeepsOtherEntriesReachable() {
+        LongHashMap<Long> map = new LongHashMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 20000; i++) {
+            //key范围较小, 探测序列较长, 删除时需要移动后面的数据
+            long key = random.nextInt(40000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                map.put(key, (long) i);
+                expected.put(key, (long) i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 40000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertNull(map.remove(-1L));
+    }
+
+    @Test
+    public void keysWithSameHashAreProbed() {
+        //找到一组hash完全相同的key, 它们在任何容量下都落在同一个槽位
+        Map<Integer, Long> seen = new HashMap<>();
+        long first = 0;
+        long second = 0;
+        for (long key = 0; ; key++) {
+            Long previous = seen.put(LongHashMap.hash(key), key);
+            if (previous != null) {
+                first = previous;
+                second = key;
+                break;
+            }
+        }
+
+        LongHashMap<String> map = new LongHashMap<>();
+        map.put(first, "first");
+        map.put(second, "second");
+        for (long key = -100; key < 100; key++) {
+            if (key != first && key != second) {
+                map.put(key, String.valueOf(key));
+            }
+        }
+
+        assertEquals("first", map.get(first));
+        assertEquals("second", map.get(second));
+        assertEquals("50", map.get(50L));
+
+        map.remove(first);
+        assertNull(map.get(first));
+        assertEquals("second", map.get(second));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.types.Row;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OffHeapAllCacheIndexTest {
+
+    private OffHeapAllCacheIndex index;
+
+    @After
+    public void release() {
+        if (index != null) {
+            index.release();
+        }
+    }
+
+    @Test
+    public void severalRowsPerKey() {
+        index = new OffHeapAllCacheIndex(Collections.singletonList(0));
+        index.add(SideKey.of(1), new Object[]{1, "a"});
+        index.add(SideKey.of(1), new Object[]{1, "b"});
+        index.add(SideKey.of(2), new Object[]{2, "c"});
+
+        List<Object[]> rows = index.get(Row.of(1L));
+        assertEquals(2, rows.size());
+        //同一个key的数据保持写入顺序, 与堆内索引一致
+        assertArrayEquals(new Object[]{1, "a"}, rows.get(0));
+        assertArrayEquals(new Object[]{1, "b"}, rows.get(1));
+        assertEquals(1, index.get(Row.of("2")).size());
+        assertNull(index.get(Row.of(3)));
+        assertNull(index.get(Row.of((Object) null)));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void resizeKeepsAllRows() {
+        index = new OffHeapAllCacheIndex(Arrays.asList(0, 1));
+        for (int i = 0; i < 50000; i++) {
+            index.add(SideKey.of(new Object[]{i, "k" + i}), new Object[]{i, "k" + i, (double) i});
+        }
+
+        for (int i = 0; i < 50000; i++) {
+            List<Object[]> rows = index.get(Row.of(i, "k" + i));
+            assertEquals(1, rows.size());
+            assertArrayEquals(new Object[]{i, "k" + i, (double) i}, rows.get(0));
+        }
+        assertNull(index.get(Row.of(1, "k2")));
+        assertEquals(50000, index.size());
+    }
+
+    @Test
+    public void rowOrderSurvivesResize() {
+        index = new OffHeapAllCacheIndex(Collections.singletonList(0));
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 20000; i++) {
+                index.add(SideKey.of(i), new Object[]{i, round});
+            }
+        }
+
+        for (int i = 0; i < 20000; i++) {
+            List<Object[]> rows = index.get(Row.of(i));
+            assertEquals(3, rows.size());
+            for (int round = 0; round < 3; round++) {
+                assertArrayEquals(new Object[]{i, round}, rows.get(round));
+            }
+        }
+    }
+
+    @Test
+    public void keysWithSameHashAreKeptApart() throws Exception {
+        //"Aa"和"BB"序列化后的字节hash相同
+        assertEquals(keyHash(SideKey.of("Aa")), keyHash(SideKey.of("BB")));
+        index = new OffHeapAllCacheIndex(Collections.singletonList(0));
+        index.add(SideKey.of("Aa"), new Object[]{"Aa"});
+        index.add(SideKey.of("BB"), new Object[]{"BB"});
+
+        assertArrayEquals(new Object[]{"Aa"}, index.get(Row.of("Aa")).get(0));
+        assertArrayEquals(new Object[]{"BB"}, index.get(Row.of("BB")).get(0));
+        assertEquals(1, index.get(Row.of("BB")).size());
+    }
+
+    @Test
+    public void releaseIsIdempotent() {
+        index = new OffHeapAllCacheIndex(Collections.singletonList(0));
+        index.add(SideKey.of(1), new Object[]{1});
+        index.release();
+        index.release();
+        assertEquals(0, index.getAllocatedBytes());
+    }
+
+    private static long keyHash(SideKey key) throws Exception {
+        DataOutputSerializer out = new DataOutputSerializer(64);
+        CacheRowSerializer.writeKey(key, out);
+        return CacheRowSerializer.hash(out.getSharedBuffer(), out.length());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.yjp.flink.sql.side.cache;
+
+import com.yjp.flink.sql.side.SideKey;
+import org.apache.flink.types.Row;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotAllCacheIndexTest {
+
+    private static final long TTL_MS = 60 * 60 * 1000L;
+
+    private File dir;
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("side-snapshot").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void severalRowsPerKey() throws Exception {
+        SnapshotAllCacheIndex index = load(TTL_MS);
+
+        List<Object[]> rows = index.get(Row.of(1));
+        assertEquals(2, rows.size());
+        //同一个key的数据保持写入顺序
+        assertArrayEquals(new Object[]{1, "a"}, rows.get(0));
+        assertArrayEquals(new Object[]{1, "b"}, rows.get(1));
+        assertArrayEquals(new Object[]{"Aa", "c"}, index.get(Row.of("Aa")).get(0));
+        assertArrayEquals(new Object[]{"BB", "d"}, index.get(Row.of("BB")).get(0));
+        assertNull(index.get(Row.of(3)));
+        assertNull(index.get(Row.of((Object) null)));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void reopenFreshSnapshotWithoutLoading() throws Exception {
+        load(TTL_MS);
+        SnapshotAllCacheIndex index = load(TTL_MS);
+
+        assertEquals(1, loadCount.get());
+        assertEquals(2, index.get(Row.of(1L)).size());
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void reloadExpiredSnapshot() throws Exception {
+        load(TTL_MS);
+        load(0);
+
+        assertEquals(2, loadCount.get());
+    }
+
+    @Test
+    public void truncatedSnapshotIsRebuilt() throws Exception {
+        load(TTL_MS);
+        File[] snapshots = dir.listFiles((d, name) -> name.endsWith(".snapshot"));
+        assertEquals(1, snapshots.length);
+        try (RandomAccessFile file = new RandomAccessFile(snapshots[0], "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        SnapshotAllCacheIndex index = load(TTL_MS);
+        assertEquals(2, loadCount.get());
+        assertEquals(2, index.get(Row.of(1)).size());
+        assertEquals(4, index.size());
+    }
+
+    private SnapshotAllCacheIndex load(long ttlMs) throws Exception {
+        return SnapshotAllCacheIndex.loadOrCreate(dir.getPath(), "test", ttlMs, Collections.singletonList(0), writer -> {
+            loadCount.incrementAndGet();
+            writer.add(SideKey.of(1), new Object[]{1, "a"});
+            writer.add(SideKey.of("Aa"), new Object[]{"Aa", "c"});
+            writer.add(SideKey.of(1), new Object[]{1, "b"});
+            writer.add(SideKey.of("BB"), new Object[]{"BB", "d"});
+        });
+    }
+}
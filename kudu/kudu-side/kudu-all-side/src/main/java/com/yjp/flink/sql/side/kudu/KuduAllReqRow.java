@@ -1,19 +1,26 @@
 package com.yjp.flink.sql.side.kudu;
 
+import com.yjp.flink.sql.enums.ECacheStorage;
 import com.yjp.flink.sql.side.AllReqRow;
 import com.yjp.flink.sql.side.FieldInfo;
 import com.yjp.flink.sql.side.JoinInfo;
+import com.yjp.flink.sql.side.KeyGroupFilter;
+import com.yjp.flink.sql.side.SideKey;
 import com.yjp.flink.sql.side.SideTableInfo;
+import com.yjp.flink.sql.side.cache.AllCacheHolder;
+import com.yjp.flink.sql.side.cache.AllCacheIndex;
+import com.yjp.flink.sql.side.cache.MutableAllCacheIndex;
+import com.yjp.flink.sql.side.cache.SnapshotAllCacheIndex;
+import com.yjp.flink.sql.side.cache.UpdatableAllCacheIndex;
+import com.yjp.flink.sql.side.kudu.table.KuduClientFactory;
 import com.yjp.flink.sql.side.kudu.table.KuduSideTableInfo;
+import com.yjp.flink.sql.threadFactory.YjpThreadFactory;
 import org.apache.calcite.sql.JoinType;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.flink.api.java.typeutils.RowTypeInfo;
-import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
 import org.apache.flink.calcite.shaded.com.google.common.collect.Maps;
-import org.apache.flink.table.typeutils.TimeIndicatorTypeInfo;
 import org.apache.flink.types.Row;
 import org.apache.flink.util.Collector;
-import org.apache.flink.util.Preconditions;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Schema;
 import org.apache.kudu.Type;
@@ -24,7 +31,12 @@ import org.slf4j.LoggerFactory;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class KuduAllReqRow extends AllReqRow {
 
@@ -36,16 +48,60 @@ public class KuduAllReqRow extends AllReqRow {
      */
     private static final int CONN_RETRY_NUM = 3;
     /**
-     * 缓存条数
+     * 全量加载的默认并发数
      */
-    private static final Long FETCH_SIZE = 1000L;
+    private static final int DEFAULT_LOAD_PARALLELISM = 4;
+    /**
+     * 配置了增量字段时默认的全量重新加载间隔, 用于同步被删除的数据
+     */
+    private static final long DEFAULT_FULL_RELOAD_MS = 60 * 60 * 1000L;
+    /**
+     * 每个扫描线程在队列中最多缓存的批数, 一批为一次nextRows的数据
+     */
+    private static final int BATCH_QUEUE_SIZE_PER_THREAD = 4;
+    /**
+     * 一个tablet扫描结束的标记
+     */
+    private static final List<Object[]> END_OF_TOKEN = Collections.emptyList();
 
     private KuduClient client;
 
     private KuduTable table;
 
 
-    private AtomicReference<Map<String, List<Map<String, Object>>>> cacheRef = new AtomicReference<>();
+    private AllCacheHolder<Object[]> cacheRef = new AllCacheHolder<>();
+
+    /**
+     * 扫描的字段: 查询字段在前, 配置了增量字段时后面追加主键和增量字段
+     */
+    private transient List<String> scanColumns;
+
+    private transient Type[] scanTypes;
+
+    private transient int[] equalFieldPositions;
+
+    private transient int[] primaryKeyPositions;
+
+    private transient int incrementalPosition;
+
+    /**
+     * partitionedJoin时只加载当前subtask负责的key group范围内的数据
+     */
+    private transient KeyGroupFilter keyGroupFilter;
+
+    /**
+     * 主键 -> 当前数据, 增量更新时用于从索引中移除旧数据; 只在处理数据的线程中修改.
+     * value与索引中是同一个数组, 不复制数据, 额外的内存是每条数据的HashMap节点和主键对象;
+     * 关联字段不是主键时无法从索引反查旧数据, 所以单独保存
+     */
+    private transient Map<SideKey, Object[]> primaryKeyRows;
+
+    /**
+     * 已加载数据中增量字段的最大值, 只在加载线程中读写
+     */
+    private transient long watermark;
+
+    private transient long lastFullLoadTime;
 
     public KuduAllReqRow(RowTypeInfo rowTypeInfo, JoinInfo joinInfo, List<FieldInfo> outFieldInfoList, SideTableInfo sideTableInfo) {
         super(new KuduAllSideInfo(rowTypeInfo, joinInfo, outFieldInfoList, sideTableInfo));
@@ -54,62 +110,45 @@ public class KuduAllReqRow extends AllReqRow {
 
     @Override
     public Row fillData(Row input, Object sideInput) {
-        Map<String, Object> cacheInfo = (Map<String, Object>) sideInput;
-        Row row = new Row(sideInfo.getOutFieldInfoList().size());
-        for (Map.Entry<Integer, Integer> entry : sideInfo.getInFieldIndex().entrySet()) {
-            Object obj = input.getField(entry.getValue());
-            boolean isTimeIndicatorTypeInfo = TimeIndicatorTypeInfo.class.isAssignableFrom(sideInfo.getRowTypeInfo().getTypeAt(entry.getValue()).getClass());
-
-            //Type information for indicating event or processing time. However, it behaves like a regular SQL timestamp but is serialized as Long.
-            if (obj instanceof Timestamp && isTimeIndicatorTypeInfo) {
-                obj = ((Timestamp) obj).getTime();
-            }
-            row.setField(entry.getKey(), obj);
-        }
-
-        for (Map.Entry<Integer, String> entry : sideInfo.getSideFieldNameIndex().entrySet()) {
-            if (cacheInfo == null) {
-                row.setField(entry.getKey(), null);
-            } else {
-                row.setField(entry.getKey(), cacheInfo.get(entry.getValue()));
-            }
-        }
-
-        return row;
+        return sideInfo.fillRow(input, (Object[]) sideInput);
     }
 
     @Override
     protected void initCache() throws SQLException {
-        Map<String, List<Map<String, Object>>> newCache = Maps.newConcurrentMap();
-        cacheRef.set(newCache);
-        loadData(newCache);
+        keyGroupFilter = KeyGroupFilter.create(getRuntimeContext(), sideInfo);
+        if (null != keyGroupFilter) {
+            LOG.info("partitioned join, subtask {} only loads key groups {}", getRuntimeContext().getIndexOfThisSubtask(),
+                    keyGroupFilter.getKeyGroupRange());
+        }
+        cacheRef.set(loadData());
     }
 
 
     @Override
     protected void reloadCache() {
+        KuduSideTableInfo tableInfo = (KuduSideTableInfo) sideInfo.getSideTableInfo();
         //reload cacheRef and replace to old cacheRef
-        Map<String, List<Map<String, Object>>> newCache = Maps.newConcurrentMap();
-        loadData(newCache);
+        AllCacheIndex<Object[]> newCache;
+        try {
+            long fullReloadMs = null == tableInfo.getFullReloadMs() ? DEFAULT_FULL_RELOAD_MS : tableInfo.getFullReloadMs();
+            if (null != tableInfo.getIncrementalColumn() && System.currentTimeMillis() - lastFullLoadTime < fullReloadMs) {
+                loadDelta(tableInfo);
+                return;
+            }
+            newCache = loadData();
+        } catch (Exception e) {
+            LOG.error("reload kudu side table failed, keep the old cache.", e);
+            return;
+        }
 
         cacheRef.set(newCache);
-        LOG.info("----- Mongo all cacheRef reload end:{}", Calendar.getInstance());
+        LOG.info("----- kudu all cacheRef reload end:{}", Calendar.getInstance());
     }
 
 
     @Override
     public void flatMap(Row value, Collector<Row> out) throws Exception {
-        List<Object> inputParams = Lists.newArrayList();
-        for (Integer conValIndex : sideInfo.getEqualValIndex()) {
-            Object equalObj = value.getField(conValIndex);
-            if (equalObj == null) {
-                out.collect(null);
-            }
-            inputParams.add(equalObj);
-        }
-
-        String key = buildKey(inputParams);
-        List<Map<String, Object>> cacheList = cacheRef.get().get(key);
+        List<Object[]> cacheList = cacheRef.get().get(value);
         if (CollectionUtils.isEmpty(cacheList)) {
             if (sideInfo.getJoinType() == JoinType.LEFT) {
                 Row row = fillData(value, null);
@@ -118,161 +157,375 @@ public class KuduAllReqRow extends AllReqRow {
             return;
         }
 
-        for (Map<String, Object> one : cacheList) {
+        for (Object[] one : cacheList) {
             out.collect(fillData(value, one));
         }
     }
 
-    private void loadData(Map<String, List<Map<String, Object>>> tmpCache) {
+    private AllCacheIndex<Object[]> loadData() {
         KuduSideTableInfo tableInfo = (KuduSideTableInfo) sideInfo.getSideTableInfo();
-        KuduScanner scanner = null;
+        connKuDu(tableInfo);
+        buildScanColumns(tableInfo);
+        if (ECacheStorage.MMAP.name().equalsIgnoreCase(tableInfo.getCacheStorage())) {
+            return loadSnapshot(tableInfo);
+        }
+
+        long startTime = System.currentTimeMillis();
+        //配置了增量字段时之后要按主键移除旧数据, 使用支持remove的索引(解析时已限制为堆内存储)
+        MutableAllCacheIndex<Object[]> tmpCache = null == tableInfo.getIncrementalColumn()
+                ? AllCacheIndex.create(sideInfo.getEqualValIndex(), isIntegralKey(), tableInfo.getCacheStorage())
+                : AllCacheIndex.createUpdatable(sideInfo.getEqualValIndex(), isIntegralKey());
+        Map<SideKey, Object[]> tmpPrimaryKeyRows = null == tableInfo.getIncrementalColumn() ? null : Maps.newHashMap();
+        long maxVersion;
         try {
-            for (int i = 0; i < CONN_RETRY_NUM; i++) {
-                try {
-                    scanner = getConn(tableInfo);
-                    break;
-                } catch (Exception e) {
-                    if (i == CONN_RETRY_NUM - 1) {
-                        throw new RuntimeException("", e);
-                    }
+            maxVersion = scanTable(tableInfo, null, oneRow -> {
+                if (tmpPrimaryKeyRows != null) {
+                    tmpPrimaryKeyRows.put(buildKey(oneRow, primaryKeyPositions), oneRow);
+                }
+                SideKey cacheKey = buildKey(oneRow, equalFieldPositions);
+                if (cacheKey != null) {
+                    tmpCache.add(cacheKey, oneRow);
+                }
+            });
+        } catch (Exception e) {
+            tmpCache.release();
+            throw new RuntimeException("load kudu table " + tableInfo.getTableName() + " error.", e);
+        }
+
+        primaryKeyRows = tmpPrimaryKeyRows;
+        watermark = maxVersion;
+        lastFullLoadTime = startTime;
+        LOG.info("load kudu table {} {} rows, cost {} ms", tableInfo.getTableName(), tmpCache.size(), System.currentTimeMillis() - startTime);
+        return tmpCache;
+    }
+
+    /**
+     * 快照文件还在有效期内时直接映射(包括作业重启后), 否则由同一台机器上第一个拿到文件锁的subtask扫描kudu写入新快照
+     */
+    private AllCacheIndex<Object[]> loadSnapshot(KuduSideTableInfo tableInfo) {
+        try {
+            return SnapshotAllCacheIndex.loadOrCreate(tableInfo.getCacheSnapshotDir(), snapshotKey(tableInfo), tableInfo.getCacheTimeout(),
+                    sideInfo.getEqualValIndex(), writer -> scanTable(tableInfo, null, oneRow -> {
+                        SideKey cacheKey = buildKey(oneRow, equalFieldPositions);
+                        if (cacheKey != null) {
+                            writer.add(cacheKey, oneRow);
+                        }
+                    }));
+        } catch (Exception e) {
+            throw new RuntimeException("load kudu table " + tableInfo.getTableName() + " snapshot error.", e);
+        }
+    }
+
+    /**
+     * 扫描条件相同的维表数据才能共用一个快照文件
+     */
+    private String snapshotKey(KuduSideTableInfo tableInfo) {
+        return sideInfo.getSharedCacheKey() + ":" + tableInfo.getKuduMasters() + ":" + tableInfo.getTableName() + ":"
+                + tableInfo.getPrimaryKey() + ":" + tableInfo.getLowerBoundPrimaryKey() + ":" + tableInfo.getUpperBoundPrimaryKey() + ":"
+                + tableInfo.getLimitNum() + ":" + (null == keyGroupFilter ? "all" : keyGroupFilter.getKeyGroupRange());
+    }
+
+    /**
+     * 只扫描增量字段不小于上次最大值的数据(相同值的数据可能还未全部写入), 交给处理数据的线程按主键替换到当前缓存中;
+     * 被删除的数据由定期的全量加载同步
+     */
+    private void loadDelta(KuduSideTableInfo tableInfo) throws Exception {
+        long startTime = System.currentTimeMillis();
+        KuduPredicate predicate = null;
+        if (watermark != Long.MIN_VALUE) {
+            ColumnSchema incrementalColumn = table.getSchema().getColumn(tableInfo.getIncrementalColumn());
+            predicate = KuduPredicate.newComparisonPredicate(incrementalColumn, KuduPredicate.ComparisonOp.GREATER_EQUAL, watermark);
+        }
+
+        List<Object[]> changedRows = new ArrayList<>();
+        long maxVersion = scanTable(tableInfo, predicate, changedRows::add);
+        if (!changedRows.isEmpty()) {
+            Map<SideKey, Object[]> currentPrimaryKeyRows = primaryKeyRows;
+            //增量加载时当前索引一定由loadData中的createUpdatable创建
+            cacheRef.update(index -> applyDelta((UpdatableAllCacheIndex<Object[]>) index, currentPrimaryKeyRows, changedRows));
+        }
+
+        watermark = Math.max(watermark, maxVersion);
+        LOG.info("load kudu table {} delta {} rows, cost {} ms", tableInfo.getTableName(), changedRows.size(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 在处理数据的线程中执行
+     */
+    private void applyDelta(UpdatableAllCacheIndex<Object[]> index, Map<SideKey, Object[]> currentPrimaryKeyRows, List<Object[]> changedRows) {
+        for (Object[] oneRow : changedRows) {
+            //关联字段变化后不再属于当前subtask的数据, 只移除旧数据
+            boolean accepted = null == keyGroupFilter || keyGroupFilter.accept(oneRow, equalFieldPositions);
+            SideKey primaryKey = buildKey(oneRow, primaryKeyPositions);
+            Object[] oldRow = accepted ? currentPrimaryKeyRows.put(primaryKey, oneRow) : currentPrimaryKeyRows.remove(primaryKey);
+            if (oldRow != null) {
+                SideKey oldKey = buildKey(oldRow, equalFieldPositions);
+                if (oldKey != null) {
+                    index.remove(oldKey, oldRow);
+                }
+            }
+
+            SideKey cacheKey = buildKey(oneRow, equalFieldPositions);
+            if (accepted && cacheKey != null) {
+                index.add(cacheKey, oneRow);
+            }
+        }
+    }
+
+    /**
+     * 按tablet生成KuduScanToken, 在有界线程池中并发扫描, 扫描线程把每批数据放入有界队列, 在当前线程中交给rowConsumer处理(缓存索引不是线程安全的);
+     * 配置了limitNum时全量加载一共只取limitNum条
+     *
+     * @return 扫描到的增量字段最大值, 没有配置增量字段时为Long.MIN_VALUE
+     */
+    private long scanTable(KuduSideTableInfo tableInfo, KuduPredicate predicate, Consumer<Object[]> rowConsumer) throws Exception {
+        List<KuduScanToken> tokens = buildScanTokens(tableInfo, predicate);
+        long maxVersion = Long.MIN_VALUE;
+        if (tokens.isEmpty()) {
+            return maxVersion;
+        }
+
+        int loadParallelism = Math.min(tokens.size(), null == tableInfo.getLoadParallelism() ? DEFAULT_LOAD_PARALLELISM : tableInfo.getLoadParallelism());
+        long limit = null == predicate && null != tableInfo.getLimitNum() && tableInfo.getLimitNum() > 0 ? tableInfo.getLimitNum() : Long.MAX_VALUE;
+        BlockingQueue<List<Object[]>> batchQueue = new ArrayBlockingQueue<>(loadParallelism * BATCH_QUEUE_SIZE_PER_THREAD);
+        AtomicReference<Exception> scanError = new AtomicReference<>();
+        ExecutorService loadPool = Executors.newFixedThreadPool(loadParallelism, new YjpThreadFactory("kudu-all-load"));
+        try {
+            for (KuduScanToken token : tokens) {
+                loadPool.execute(() -> {
                     try {
-                        String connInfo = "kuduMasters:" + tableInfo.getKuduMasters() + ";tableName:" + tableInfo.getTableName();
-                        LOG.warn("get conn fail, wait for 5 sec and try again, connInfo:" + connInfo);
-                        Thread.sleep(5 * 1000);
-                    } catch (InterruptedException e1) {
-                        e1.printStackTrace();
+                        scanToken(token, null == predicate, batchQueue);
+                    } catch (Exception e) {
+                        scanError.compareAndSet(null, e);
+                    } finally {
+                        try {
+                            batchQueue.put(END_OF_TOKEN);
+                        } catch (InterruptedException e) {
+                            //加载线程已经不再读取队列
+                            Thread.currentThread().interrupt();
+                        }
                     }
-                }
+                });
             }
-            //load data from table
-            assert scanner != null;
-            String[] sideFieldNames = sideInfo.getSideSelectFields().split(",");
 
+            long count = 0;
+            int finishedTokens = 0;
+            while (finishedTokens < tokens.size() && count < limit) {
+                List<Object[]> batch = batchQueue.take();
+                if (batch == END_OF_TOKEN) {
+                    if (null != scanError.get()) {
+                        throw scanError.get();
+                    }
+                    finishedTokens++;
+                    continue;
+                }
+                for (Object[] oneRow : batch) {
+                    if (count++ >= limit) {
+                        break;
+                    }
+                    rowConsumer.accept(oneRow);
+                    if (incrementalPosition >= 0) {
+                        maxVersion = Math.max(maxVersion, versionOf(oneRow[incrementalPosition]));
+                    }
+                }
+            }
+        } finally {
+            //达到limitNum或者出错时中断还在扫描的线程
+            loadPool.shutdownNow();
+        }
+        return maxVersion;
+    }
 
+    /**
+     * @param filterKeyGroup 全量加载时在扫描线程中按key group过滤; 增量数据需要用来移除关联字段变化前的旧数据, 不过滤
+     */
+    private void scanToken(KuduScanToken token, boolean filterKeyGroup, BlockingQueue<List<Object[]>> batchQueue) throws Exception {
+        KuduScanner scanner = token.intoScanner(client);
+        try {
             while (scanner.hasMoreRows()) {
                 RowResultIterator results = scanner.nextRows();
+                List<Object[]> batch = new ArrayList<>(results.getNumRows());
                 while (results.hasNext()) {
                     RowResult result = results.next();
-                    Map<String, Object> oneRow = Maps.newHashMap();
-                    for (String sideFieldName1 : sideFieldNames) {
-                        String sideFieldName = sideFieldName1.trim();
-                        ColumnSchema columnSchema = table.getSchema().getColumn(sideFieldName);
-                        if (null != columnSchema) {
-                            setMapValue(columnSchema.getType(), oneRow, sideFieldName, result);
+                    Object[] oneRow = new Object[scanTypes.length];
+                    for (int i = 0; i < scanTypes.length; i++) {
+                        if (!result.isNull(i)) {
+                            oneRow[i] = readValue(scanTypes[i], i, result);
                         }
                     }
-                    String cacheKey = buildKey(oneRow, sideInfo.getEqualFieldList());
-                    List<Map<String, Object>> list = tmpCache.computeIfAbsent(cacheKey, key -> Lists.newArrayList());
-                    list.add(oneRow);
+                    //kudu无法下推key group的过滤条件, 在扫描线程中过滤, 不属于当前subtask的数据不进入缓存
+                    if (filterKeyGroup && null != keyGroupFilter && !keyGroupFilter.accept(oneRow, equalFieldPositions)) {
+                        continue;
+                    }
+                    batch.add(oneRow);
+                }
+                if (!batch.isEmpty()) {
+                    batchQueue.put(batch);
                 }
             }
-
-        } catch (Exception e) {
-            LOG.error("", e);
         } finally {
-            if (null != scanner) {
-                try {
-                    scanner.close();
-                } catch (KuduException e) {
-                    LOG.error("Error while closing scanner.", e);
-                }
+            try {
+                scanner.close();
+            } catch (KuduException e) {
+                LOG.error("Error while closing scanner.", e);
             }
-            //放置到close中关闭  每次刷新时间较长则可以选择在这里关闭
-//            if (null != client) {
-//                try {
-//                    client.close();
-//                } catch (Exception e) {
-//                    LOG.error("Error while closing client.", e);
-//                }
-//            }
+        }
+    }
 
+    private void buildScanColumns(KuduSideTableInfo tableInfo) {
+        if (null != scanColumns) {
+            return;
         }
 
+        Schema schema = table.getSchema();
+        List<String> columns = new ArrayList<>();
+        for (String sideFieldName : sideInfo.getSideSelectFields().split(",")) {
+            columns.add(sideFieldName.trim());
+        }
 
-    }
+        String incrementalColumn = tableInfo.getIncrementalColumn();
+        if (null != incrementalColumn) {
+            Type incrementalType = schema.getColumn(incrementalColumn).getType();
+            if (incrementalType != Type.UNIXTIME_MICROS && incrementalType != Type.INT8 && incrementalType != Type.INT16
+                    && incrementalType != Type.INT32 && incrementalType != Type.INT64) {
+                throw new IllegalArgumentException("incrementalColumn " + incrementalColumn + " must be integer or timestamp, but is " + incrementalType);
+            }
+            for (ColumnSchema primaryKeyColumn : schema.getPrimaryKeyColumns()) {
+                if (!columns.contains(primaryKeyColumn.getName())) {
+                    columns.add(primaryKeyColumn.getName());
+                }
+            }
+            if (!columns.contains(incrementalColumn)) {
+                columns.add(incrementalColumn);
+            }
+        }
 
-    private String buildKey(List<Object> equalValList) {
-        StringBuilder sb = new StringBuilder("");
-        for (Object equalVal : equalValList) {
-            sb.append(equalVal).append("_");
+        Type[] types = new Type[columns.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = schema.getColumn(columns.get(i)).getType();
         }
 
-        return sb.toString();
+        List<String> equalFieldList = sideInfo.getEqualFieldList();
+        int[] equalPositions = new int[equalFieldList.size()];
+        for (int i = 0; i < equalPositions.length; i++) {
+            equalPositions[i] = sideInfo.getSideFieldPosition(equalFieldList.get(i));
+        }
+
+        List<ColumnSchema> primaryKeyColumns = schema.getPrimaryKeyColumns();
+        int[] primaryPositions = new int[primaryKeyColumns.size()];
+        for (int i = 0; i < primaryPositions.length; i++) {
+            primaryPositions[i] = columns.indexOf(primaryKeyColumns.get(i).getName());
+        }
+
+        scanTypes = types;
+        equalFieldPositions = equalPositions;
+        primaryKeyPositions = primaryPositions;
+        incrementalPosition = null == incrementalColumn ? -1 : columns.indexOf(incrementalColumn);
+        scanColumns = columns;
     }
 
-    private String buildKey(Map<String, Object> val, List<String> equalFieldList) {
-        StringBuilder sb = new StringBuilder("");
-        for (String equalField : equalFieldList) {
-            sb.append(val.get(equalField)).append("_");
+    /**
+     * 增量字段的值转为long比较, 时间类型转为微秒, 与kudu中UNIXTIME_MICROS的存储一致
+     */
+    private long versionOf(Object value) {
+        if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            return timestamp.getTime() / 1000 * 1000000 + timestamp.getNanos() / 1000;
         }
-        return sb.toString();
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.MIN_VALUE;
     }
 
-    private KuduScanner getConn(KuduSideTableInfo tableInfo) {
-        try {
-            if (client == null) {
-                String kuduMasters = tableInfo.getKuduMasters();
-                String tableName = tableInfo.getTableName();
-                Integer workerCount = tableInfo.getWorkerCount();
-                Integer defaultSocketReadTimeoutMs = tableInfo.getDefaultSocketReadTimeoutMs();
-                Integer defaultOperationTimeoutMs = tableInfo.getDefaultOperationTimeoutMs();
+    /**
+     * 单个整数类型的关联字段
+     */
+    private boolean isIntegralKey() {
+        List<String> equalFieldList = sideInfo.getEqualFieldList();
+        if (equalFieldList.size() != 1) {
+            return false;
+        }
 
-                Preconditions.checkNotNull(kuduMasters, "kuduMasters could not be null");
+        Type type = table.getSchema().getColumn(equalFieldList.get(0)).getType();
+        return type == Type.INT8 || type == Type.INT16 || type == Type.INT32 || type == Type.INT64;
+    }
 
-                KuduClient.KuduClientBuilder kuduClientBuilder = new KuduClient.KuduClientBuilder(kuduMasters);
-                if (null != workerCount) {
-                    kuduClientBuilder.workerCount(workerCount);
-                }
-                if (null != defaultSocketReadTimeoutMs) {
-                    kuduClientBuilder.defaultSocketReadTimeoutMs(defaultSocketReadTimeoutMs);
-                }
+    /**
+     * 关联字段为null的数据不会被关联到, 返回null
+     */
+    private SideKey buildKey(Object[] oneRow, int[] equalFieldPositions) {
+        Object[] equalValues = new Object[equalFieldPositions.length];
+        for (int i = 0; i < equalValues.length; i++) {
+            equalValues[i] = oneRow[equalFieldPositions[i]];
+        }
+        return SideKey.of(equalValues);
+    }
+
+    /**
+     * 连接kudu中的表, 失败时等待5秒重试
+     */
+    private void connKuDu(KuduSideTableInfo tableInfo) {
+        if (null != table) {
+            return;
+        }
 
-                if (null != defaultOperationTimeoutMs) {
-                    kuduClientBuilder.defaultOperationTimeoutMs(defaultOperationTimeoutMs);
+        for (int i = 0; i < CONN_RETRY_NUM; i++) {
+            try {
+                String tableName = tableInfo.getTableName();
+                if (client == null) {
+                    //共用的客户端, 由KuduClientFactory在最后一个使用者释放时关闭
+                    client = KuduClientFactory.acquire(tableInfo).syncClient();
                 }
-                client = kuduClientBuilder.build();
 
                 if (!client.tableExists(tableName)) {
                     throw new IllegalArgumentException("Table Open Failed , please check table exists");
                 }
                 table = client.openTable(tableName);
+                LOG.info("connect kudu is successed!");
+                return;
+            } catch (Exception e) {
+                if (i == CONN_RETRY_NUM - 1) {
+                    throw new RuntimeException("connect kudu error", e);
+                }
+                try {
+                    String connInfo = "kuduMasters:" + tableInfo.getKuduMasters() + ";tableName:" + tableInfo.getTableName();
+                    LOG.warn("get conn fail, wait for 5 sec and try again, connInfo:" + connInfo, e);
+                    Thread.sleep(5 * 1000);
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("connect kudu interrupted", e1);
+                }
             }
-            Schema schema = table.getSchema();
-            LOG.info("connect kudu is successed!");
-            KuduScanner.KuduScannerBuilder tokenBuilder = client.newScannerBuilder(table);
-            return buildScanner(tokenBuilder, schema, tableInfo);
-        } catch (
-                Exception e) {
-            LOG.error("connect kudu is error:" + e.getMessage());
-        }
-        return null;
+        }
     }
 
-
     /**
-     * @param builder   创建AsyncKuduScanner对象
-     * @param schema    kudu中表约束
-     * @param tableInfo AsyncKuduScanner的配置信息
+     * 每个tablet一个KuduScanToken, 不设置默认的条数限制以免截断全量数据; 配置了limitNum时每个tablet最多也只需要扫描limitNum条,
+     * 总条数在scanTable中限制; 增量加载不限制条数, 否则会漏掉变化的数据
+     *
+     * @param tableInfo 扫描的配置信息
+     * @param predicate 增量加载的过滤条件, 全量加载时为null
      * @return
      */
-    private KuduScanner buildScanner(KuduScanner.KuduScannerBuilder builder, Schema schema, KuduSideTableInfo
-            tableInfo) {
+    private List<KuduScanToken> buildScanTokens(KuduSideTableInfo tableInfo, KuduPredicate predicate) {
+        KuduScanToken.KuduScanTokenBuilder builder = client.newScanTokenBuilder(table);
+        Schema schema = table.getSchema();
         Integer batchSizeBytes = tableInfo.getBatchSizeBytes();
         Long limitNum = tableInfo.getLimitNum();
         Boolean isFaultTolerant = tableInfo.getFaultTolerant();
-        //查询需要的字段
-        String[] sideFieldNames = sideInfo.getSideSelectFields().split(",");
         //主键过滤条件 主键最小值
         String lowerBoundPrimaryKey = tableInfo.getLowerBoundPrimaryKey();
         //主键过滤条件 主键最大值
         String upperBoundPrimaryKey = tableInfo.getUpperBoundPrimaryKey();
         //主键字段
         String primaryKeys = tableInfo.getPrimaryKey();
-        if (null == limitNum || limitNum <= 0) {
-            builder.limit(FETCH_SIZE);
-        } else {
+        if (null == predicate && null != limitNum && limitNum > 0) {
             builder.limit(limitNum);
         }
+        if (null != predicate) {
+            builder.addPredicate(predicate);
+        }
         if (null != batchSizeBytes) {
             builder.batchSizeBytes(batchSizeBytes);
         }
@@ -297,8 +550,7 @@ public class KuduAllReqRow extends AllReqRow {
                 }
             }
         }
-        List<String> projectColumns = Arrays.asList(sideFieldNames);
-        return builder.setProjectedColumnNames(projectColumns).build();
+        return builder.setProjectedColumnNames(scanColumns).build();
     }
 
     private String[] splitString(String data) {
@@ -344,53 +596,54 @@ public class KuduAllReqRow extends AllReqRow {
         return partialRow;
     }
 
-    private void setMapValue(Type type, Map<String, Object> oneRow, String sideFieldName, RowResult result) {
+    private Object readValue(Type type, int index, RowResult result) {
         switch (type) {
             case STRING:
-                oneRow.put(sideFieldName, result.getString(sideFieldName));
-                break;
+                return result.getString(index);
             case FLOAT:
-                oneRow.put(sideFieldName, result.getFloat(sideFieldName));
-                break;
+                return result.getFloat(index);
             case INT8:
-                oneRow.put(sideFieldName, result.getFloat(sideFieldName));
-                break;
+                return result.getByte(index);
             case INT16:
-                oneRow.put(sideFieldName, result.getShort(sideFieldName));
-                break;
+                return result.getShort(index);
             case INT32:
-                oneRow.put(sideFieldName, result.getInt(sideFieldName));
-                break;
+                return result.getInt(index);
             case INT64:
-                oneRow.put(sideFieldName, result.getLong(sideFieldName));
-                break;
+                return result.getLong(index);
             case DOUBLE:
-                oneRow.put(sideFieldName, result.getDouble(sideFieldName));
-                break;
+                return result.getDouble(index);
             case BOOL:
-                oneRow.put(sideFieldName, result.getBoolean(sideFieldName));
-                break;
+                return result.getBoolean(index);
             case UNIXTIME_MICROS:
-                oneRow.put(sideFieldName, result.getTimestamp(sideFieldName));
-                break;
+                return result.getTimestamp(index);
             case BINARY:
-                oneRow.put(sideFieldName, result.getBinary(sideFieldName));
-                break;
+                return result.getBinary(index);
             default:
                 throw new IllegalArgumentException("Illegal var type: " + type);
         }
     }
 
+    /**
+     * 缓存不是堆内的, 或者需要在读取线程中增量更新, 或者按key group只加载了部分数据时不能共用
+     */
     @Override
-    public void close() throws Exception {
-        //公用一个client  如果每次刷新间隔时间较长可以每次获取一个
-        super.close();
+    protected boolean isCacheShareable() {
+        KuduSideTableInfo tableInfo = (KuduSideTableInfo) sideInfo.getSideTableInfo();
+        return !ECacheStorage.OFFHEAP.name().equalsIgnoreCase(tableInfo.getCacheStorage())
+                && null == tableInfo.getIncrementalColumn() && !tableInfo.isPartitionedJoin();
+    }
+
+    @Override
+    protected void attachSharedCache(AllReqRow owner) {
+        cacheRef = ((KuduAllReqRow) owner).cacheRef;
+    }
+
+    @Override
+    protected void releaseCache() {
+        cacheRef.release();
         if (null != client) {
-            try {
-                client.close();
-            } catch (Exception e) {
-                LOG.error("Error while closing client.", e);
-            }
+            KuduClientFactory.release((KuduSideTableInfo) sideInfo.getSideTableInfo());
+            client = null;
         }
     }
 }
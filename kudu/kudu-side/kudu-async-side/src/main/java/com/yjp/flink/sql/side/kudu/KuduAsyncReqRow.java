@@ -3,18 +3,24 @@ package com.yjp.flink.sql.side.kudu;
 import com.stumbleupon.async.Callback;
 import com.stumbleupon.async.Deferred;
 import com.yjp.flink.sql.enums.ECacheContentType;
+import com.yjp.flink.sql.enums.ECacheStorage;
+import com.yjp.flink.sql.metric.MetricConstant;
 import com.yjp.flink.sql.side.*;
+import com.yjp.flink.sql.side.cache.AllCacheIndex;
 import com.yjp.flink.sql.side.cache.CacheObj;
+import com.yjp.flink.sql.side.cache.MutableAllCacheIndex;
+import com.yjp.flink.sql.side.cache.SnapshotLoader;
+import com.yjp.flink.sql.side.kudu.table.KuduClientFactory;
 import com.yjp.flink.sql.side.kudu.table.KuduSideTableInfo;
-import io.vertx.core.json.JsonArray;
+import com.yjp.flink.sql.threadFactory.YjpThreadFactory;
 import org.apache.flink.api.java.typeutils.RowTypeInfo;
 import org.apache.flink.calcite.shaded.com.google.common.collect.Lists;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.MeterView;
 import org.apache.flink.shaded.guava18.com.google.common.collect.Maps;
 import org.apache.flink.streaming.api.functions.async.ResultFuture;
-import org.apache.flink.table.typeutils.TimeIndicatorTypeInfo;
 import org.apache.flink.types.Row;
-import org.apache.flink.util.Preconditions;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Schema;
 import org.apache.kudu.Type;
@@ -22,13 +28,15 @@ import org.apache.kudu.client.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.Timestamp;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class KuduAsyncReqRow extends AsyncReqRow {
+public class KuduAsyncReqRow extends AsyncReqRow implements HybridSideSupport {
 
     private static final Logger LOG = LoggerFactory.getLogger(KuduAsyncReqRow.class);
     /**
@@ -40,6 +48,28 @@ public class KuduAsyncReqRow extends AsyncReqRow {
      */
     private static final Long FETCH_SIZE = 1000L;
 
+    /**
+     * 批量查询默认的最长等待时间
+     */
+    private static final long DEFAULT_BATCH_LOOKUP_MS = 10L;
+
+    /**
+     * 再次查询默认的最小等待时间
+     */
+    private static final long DEFAULT_HEDGE_MIN_DELAY_MS = 5L;
+
+    /**
+     * 计算百分位时保留的最近查询耗时个数, 以及开始再次查询前至少需要的个数
+     */
+    private static final int HEDGE_LATENCY_SAMPLES = 1024;
+
+    private static final int HEDGE_MIN_SAMPLES = 100;
+
+    /**
+     * 检查是否需要再次查询的间隔
+     */
+    private static final long HEDGE_CHECK_INTERVAL_MS = 1L;
+
     private static final long serialVersionUID = 5028583854989267753L;
 
 
@@ -49,7 +79,66 @@ public class KuduAsyncReqRow extends AsyncReqRow {
 
     private KuduSideTableInfo kuduSideTableInfo;
 
-    private AsyncKuduScanner.AsyncKuduScannerBuilder scannerBuilder;
+    /**
+     * 查询需要的字段
+     */
+    private String[] sideFieldNames;
+
+    /**
+     * 查询字段的类型, 与sideFieldNames一一对应
+     */
+    private Type[] sideFieldTypes;
+
+    /**
+     * 关联字段对应的kudu列
+     */
+    private ColumnSchema[] equalColumns;
+
+    /**
+     * 关联字段在查询字段中的位置
+     */
+    private int[] equalFieldPositions;
+
+    /**
+     * 查询字段在表中的下标, 创建scanner时不需要再按名称查找
+     */
+    private List<Integer> projectedColumnIndexes;
+
+    /**
+     * 关联字段正好是完整的主键, 每个key最多一条数据, 按主键点查
+     */
+    private boolean primaryKeyLookup;
+
+    /**
+     * 批量查询时攒批的请求, 为null表示未开启批量查询
+     */
+    private transient List<LookupRequest> pendingRequests;
+
+    private transient ScheduledExecutorService batchScheduler;
+
+    /**
+     * 开启再次查询时定时检查超过等待时间的查询并发送第二次查询, 定时更新等待时间, 为null表示未开启
+     */
+    private transient ScheduledExecutorService hedgeScheduler;
+
+    /**
+     * 还没有返回的第一次查询, 按发出的顺序排列, 由hedgeScheduler检查是否超过等待时间
+     */
+    private transient ConcurrentLinkedQueue<HedgedLookup> hedgeCandidates;
+
+    /**
+     * 第一次查询轮流使用LEADER_ONLY和CLOSEST_REPLICA, 再次查询使用另一种
+     */
+    private transient AtomicInteger replicaSelector;
+
+    private transient LatencyRecorder latencyRecorder;
+
+    /**
+     * 第一次查询超过该时间没有返回时向其它副本再发一次查询, 样本不足时为-1
+     */
+    private transient volatile long hedgeDelayNanos;
+
+    private transient Counter hedgeCounter;
 
     public KuduAsyncReqRow(RowTypeInfo rowTypeInfo, JoinInfo joinInfo, List<FieldInfo> outFieldInfoList, SideTableInfo sideTableInfo) {
         super(new KuduAsyncSideInfo(rowTypeInfo, joinInfo, outFieldInfoList, sideTableInfo));
@@ -57,55 +146,99 @@ public class KuduAsyncReqRow extends AsyncReqRow {
 
     @Override
     public void open(Configuration parameters) throws Exception {
-        super.open(parameters);
         kuduSideTableInfo = (KuduSideTableInfo) sideInfo.getSideTableInfo();
+        //HYBRID模式在super.open中创建全量数据的loader, 需要先读取表结构
         connKuDu();
+        super.open(parameters);
+        initBatchLookup();
+        initHedge();
     }
 
     /**
      * 连接kudu中的表
      *
-     * @throws KuduException
+     * @throws Exception
      */
-    private void connKuDu() throws KuduException {
+    private void connKuDu() throws Exception {
         if (null == table) {
-            String kuduMasters = kuduSideTableInfo.getKuduMasters();
             String tableName = kuduSideTableInfo.getTableName();
-            Integer workerCount = kuduSideTableInfo.getWorkerCount();
-            Integer defaultSocketReadTimeoutMs = kuduSideTableInfo.getDefaultSocketReadTimeoutMs();
-            Integer defaultOperationTimeoutMs = kuduSideTableInfo.getDefaultOperationTimeoutMs();
-
-            Preconditions.checkNotNull(kuduMasters, "kuduMasters could not be null");
-
-            AsyncKuduClient.AsyncKuduClientBuilder asyncKuduClientBuilder = new AsyncKuduClient.AsyncKuduClientBuilder(kuduMasters);
-            if (null != workerCount) {
-                asyncKuduClientBuilder.workerCount(workerCount);
-            }
-            if (null != defaultSocketReadTimeoutMs) {
-                asyncKuduClientBuilder.defaultSocketReadTimeoutMs(defaultSocketReadTimeoutMs);
-            }
-
-            if (null != defaultOperationTimeoutMs) {
-                asyncKuduClientBuilder.defaultOperationTimeoutMs(defaultOperationTimeoutMs);
-            }
-            asyncClient = asyncKuduClientBuilder.build();
+            //同一个TaskManager中连接配置相同的subtask共用一个客户端
+            asyncClient = KuduClientFactory.acquire(kuduSideTableInfo);
             if (!asyncClient.syncClient().tableExists(tableName)) {
                 throw new IllegalArgumentException("Table Open Failed , please check table exists");
             }
             table = asyncClient.syncClient().openTable(tableName);
             LOG.info("connect kudu is successed!");
         }
-        scannerBuilder = asyncClient.newScannerBuilder(table);
+        Schema schema = table.getSchema();
+        sideFieldNames = sideInfo.getSideSelectFields().split(",");
+        sideFieldTypes = new Type[sideFieldNames.length];
+        for (int i = 0; i < sideFieldNames.length; i++) {
+            sideFieldNames[i] = sideFieldNames[i].trim();
+            sideFieldTypes[i] = schema.getColumn(sideFieldNames[i]).getType();
+        }
+        projectedColumnIndexes = new ArrayList<>(sideFieldNames.length);
+        for (String sideFieldName : sideFieldNames) {
+            projectedColumnIndexes.add(schema.getColumnIndex(sideFieldName));
+        }
+        List<String> equalFieldList = sideInfo.getEqualFieldList();
+        equalColumns = new ColumnSchema[equalFieldList.size()];
+        equalFieldPositions = new int[equalFieldList.size()];
+        for (int i = 0; i < equalFieldList.size(); i++) {
+            equalColumns[i] = schema.getColumn(equalFieldList.get(i));
+            equalFieldPositions[i] = sideInfo.getSideFieldPosition(equalFieldList.get(i));
+        }
+        primaryKeyLookup = isPrimaryKeyJoin(schema);
+        if (primaryKeyLookup) {
+            LOG.info("join on the primary key of kudu table {}, use point lookup.", kuduSideTableInfo.getTableName());
+        }
+    }
+
+    private boolean isPrimaryKeyJoin(Schema schema) {
+        Set<String> equalColumnNames = new HashSet<>();
+        for (ColumnSchema equalColumn : equalColumns) {
+            equalColumnNames.add(equalColumn.getName());
+        }
+        if (equalColumnNames.size() != schema.getPrimaryKeyColumnCount()) {
+            return false;
+        }
+        for (ColumnSchema primaryKeyColumn : schema.getPrimaryKeyColumns()) {
+            if (!equalColumnNames.contains(primaryKeyColumn.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 主键上的等值条件由客户端转换为精确的主键上下界, 只扫描一个tablet并在第一个批次返回,
+     * 不需要设置limit和batchSizeBytes
+     */
+    private AsyncKuduScanner newPointLookupScanner(Object[] equalValues, ReplicaSelection replicaSelection) {
+        AsyncKuduScanner.AsyncKuduScannerBuilder scannerBuilder = asyncClient.newScannerBuilder(table)
+                .setProjectedColumnIndexes(projectedColumnIndexes)
+                .replicaSelection(replicaSelection);
+        for (int i = 0; i < equalColumns.length; i++) {
+            scannerBuilder.addPredicate(KuduPredicate.newComparisonPredicate(equalColumns[i], KuduPredicate.ComparisonOp.EQUAL, equalValues[i]));
+        }
+        return scannerBuilder.build();
+    }
+
+    /**
+     * @param limited 单key查询时限制返回条数, 批量查询不限制以免截断其它key的数据
+     */
+    private AsyncKuduScanner.AsyncKuduScannerBuilder newScannerBuilder(boolean limited) {
+        AsyncKuduScanner.AsyncKuduScannerBuilder scannerBuilder = asyncClient.newScannerBuilder(table);
         Integer batchSizeBytes = kuduSideTableInfo.getBatchSizeBytes();
         Long limitNum = kuduSideTableInfo.getLimitNum();
         Boolean isFaultTolerant = kuduSideTableInfo.getFaultTolerant();
-        //查询需要的字段
-        String[] sideFieldNames = sideInfo.getSideSelectFields().split(",");
 
-        if (null == limitNum || limitNum <= 0) {
-            scannerBuilder.limit(FETCH_SIZE);
-        } else {
-            scannerBuilder.limit(limitNum);
+        if (limited) {
+            if (null == limitNum || limitNum <= 0) {
+                scannerBuilder.limit(FETCH_SIZE);
+            } else {
+                scannerBuilder.limit(limitNum);
+            }
         }
         if (null != batchSizeBytes) {
             scannerBuilder.batchSizeBytes(batchSizeBytes);
@@ -114,207 +247,525 @@ public class KuduAsyncReqRow extends AsyncReqRow {
             scannerBuilder.setFaultTolerant(isFaultTolerant);
         }
 
-        List<String> projectColumns = Arrays.asList(sideFieldNames);
-        scannerBuilder.setProjectedColumnNames(projectColumns);
+        scannerBuilder.setProjectedColumnIndexes(projectedColumnIndexes);
+        return scannerBuilder;
     }
 
+    /**
+     * batchLookupSize大于1时开启批量查询: 攒够batchLookupSize个key或等待batchLookupMs后用一个IN-list查询
+     */
+    private void initBatchLookup() {
+        Integer batchLookupSize = kuduSideTableInfo.getBatchLookupSize();
+        if (null == batchLookupSize || batchLookupSize <= 1) {
+            return;
+        }
 
-    @Override
-    public void asyncInvoke(Row input, ResultFuture<Row> resultFuture) throws Exception {
-        //scannerBuilder 设置为null重新加载过滤条件
-        scannerBuilder = null;
-        connKuDu();
-        JsonArray inputParams = new JsonArray();
-        Schema schema = table.getSchema();
+        pendingRequests = Lists.newArrayList();
+        long batchLookupMs = null == kuduSideTableInfo.getBatchLookupMs() ? DEFAULT_BATCH_LOOKUP_MS : kuduSideTableInfo.getBatchLookupMs();
+        batchScheduler = Executors.newSingleThreadScheduledExecutor(new YjpThreadFactory("kudu-side-batch"));
+        batchScheduler.scheduleWithFixedDelay(this::flushLookupBatch, batchLookupMs, batchLookupMs, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * 配置hedgePercentile时开启: 查询耗时超过最近查询耗时的该百分位(不低于hedgeMinDelayMs)时,
+     * 向其它副本再发一次相同的查询, 取先返回的结果, 避免个别慢副本(compaction, gc)阻塞有序等待的数据
+     */
+    private void initHedge() {
+        if (null == kuduSideTableInfo.getHedgePercentile()) {
+            return;
+        }
 
-        for (Integer conValIndex : sideInfo.getEqualValIndex()) {
-            Object equalObj = input.getField(conValIndex);
-            if (equalObj == null) {
-                resultFuture.complete(null);
+        latencyRecorder = new LatencyRecorder(HEDGE_LATENCY_SAMPLES);
+        hedgeDelayNanos = -1;
+        hedgeCounter = getRuntimeContext().getMetricGroup().counter(MetricConstant.DT_NUM_SIDE_HEDGE_COUNTER);
+        getRuntimeContext().getMetricGroup().meter(MetricConstant.DT_NUM_SIDE_HEDGE_RATE, new MeterView(hedgeCounter, 20));
+        hedgeCandidates = new ConcurrentLinkedQueue<>();
+        replicaSelector = new AtomicInteger();
+        hedgeScheduler = Executors.newSingleThreadScheduledExecutor(new YjpThreadFactory("kudu-side-hedge"));
+        //不为每次查询创建定时任务, 由一个定时任务按顺序检查等待中的查询
+        hedgeScheduler.scheduleWithFixedDelay(this::sendHedges, HEDGE_CHECK_INTERVAL_MS, HEDGE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        hedgeScheduler.scheduleWithFixedDelay(this::updateHedgeDelay, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 队列按发出顺序排列, 等待时间变化不大时截止时间基本有序, 遇到第一个未到截止时间的查询即停止;
+     * 已经返回的查询直接移出队列
+     */
+    private void sendHedges() {
+        long now = System.nanoTime();
+        HedgedLookup lookup;
+        while (null != (lookup = hedgeCandidates.peek())) {
+            if (!lookup.isDone() && lookup.hedgeDeadlineNanos - now > 0) {
                 return;
             }
-            //增加过滤条件
-            scannerBuilder.addPredicate(KuduPredicate.newInListPredicate(schema.getColumn(sideInfo.getEqualFieldList().get(conValIndex)), Collections.singletonList(equalObj)));
-            inputParams.add(equalObj);
+            hedgeCandidates.poll();
+            if (lookup.startHedge()) {
+                hedgeCounter.inc();
+                sendScan(lookup, true);
+            }
+        }
+    }
+
+    private void updateHedgeDelay() {
+        long percentileNanos = latencyRecorder.percentile(kuduSideTableInfo.getHedgePercentile());
+        if (percentileNanos < 0) {
+            hedgeDelayNanos = -1;
+            return;
+        }
+
+        long minDelayMs = null == kuduSideTableInfo.getHedgeMinDelayMs() ? DEFAULT_HEDGE_MIN_DELAY_MS : kuduSideTableInfo.getHedgeMinDelayMs();
+        hedgeDelayNanos = Math.max(percentileNanos, TimeUnit.MILLISECONDS.toNanos(minDelayMs));
+    }
+
+    @Override
+    public void asyncInvoke(Row input, ResultFuture<Row> resultFuture) throws Exception {
+        SideKey key = buildCacheKey(input);
+        if (key == null) {
+            resultFuture.complete(null);
+            return;
         }
 
-        String key = buildCacheKey(inputParams);
+        //HYBRID模式下全量数据中关联到的直接返回
+        if (dealSnapshotData(input, resultFuture)) {
+            return;
+        }
 
         if (openCache()) {
             //判断数据是否已经加载到缓存中
             CacheObj val = getFromCache(key);
             if (val != null) {
-
-                if (ECacheContentType.MissVal == val.getType()) {
-                    dealMissKey(input, resultFuture);
-                    return;
-                } else if (ECacheContentType.SingleLine == val.getType()) {
-                    Row row = fillData(input, val);
-                    resultFuture.complete(Collections.singleton(row));
-                } else if (ECacheContentType.MultiLine == val.getType()) {
-                    List<Row> rowList = Lists.newArrayList();
-                    for (Object jsonArray : (List) val.getContent()) {
-                        Row row = fillData(input, jsonArray);
-                        rowList.add(row);
-                    }
-                    resultFuture.complete(rowList);
-                } else {
-                    throw new RuntimeException("not support cache obj type " + val.getType());
+                dealCacheData(input, val, resultFuture);
+                //缓存超过刷新时间, 后台重新查询, 本次直接使用旧的缓存
+                if (needRefresh(key)) {
+                    lookup(new LookupRequest(key, equalValues(input)));
                 }
                 return;
             }
         }
-        List<Map<String, Object>> cacheContent = Lists.newArrayList();
-        AsyncKuduScanner asyncKuduScanner = scannerBuilder.build();
-        List<Row> rowList = Lists.newArrayList();
-        Deferred<RowResultIterator> data = asyncKuduScanner.nextRows();
-        //从之前的同步修改为调用异步的Callback
-        data.addCallbackDeferring(new GetListRowCB(input, cacheContent, rowList, asyncKuduScanner, resultFuture, key));
+
+        //同一个key已经在查询中, 等待该查询的结果即可
+        if (joinInFlight(key, input, resultFuture)) {
+            return;
+        }
+
+        lookup(new LookupRequest(key, equalValues(input)));
     }
 
+    private Object[] equalValues(Row input) {
+        List<Integer> equalValIndex = sideInfo.getEqualValIndex();
+        Object[] equalValues = new Object[equalValIndex.size()];
+        for (int i = 0; i < equalValues.length; i++) {
+            equalValues[i] = input.getField(equalValIndex.get(i));
+        }
+        return equalValues;
+    }
 
-    @Override
-    public Row fillData(Row input, Object sideInput) {
-        Map<String, Object> cacheInfo = (Map<String, Object>) sideInput;
-        Row row = new Row(sideInfo.getOutFieldInfoList().size());
-        for (Map.Entry<Integer, Integer> entry : sideInfo.getInFieldIndex().entrySet()) {
-            Object obj = input.getField(entry.getValue());
-            boolean isTimeIndicatorTypeInfo = TimeIndicatorTypeInfo.class.isAssignableFrom(sideInfo.getRowTypeInfo().getTypeAt(entry.getValue()).getClass());
-
-            //Type information for indicating event or processing time. However, it behaves like a regular SQL timestamp but is serialized as Long.
-            if (obj instanceof Timestamp && isTimeIndicatorTypeInfo) {
-                obj = ((Timestamp) obj).getTime();
+    private void lookup(LookupRequest request) {
+        if (null != pendingRequests) {
+            addToLookupBatch(request);
+            return;
+        }
+
+        scan(Collections.singletonList(request), false);
+    }
+
+    private void addToLookupBatch(LookupRequest request) {
+        boolean full;
+        synchronized (this) {
+            pendingRequests.add(request);
+            full = pendingRequests.size() >= kuduSideTableInfo.getBatchLookupSize();
+        }
+        if (full) {
+            flushLookupBatch();
+        }
+    }
+
+    /**
+     * 每个关联字段用攒批的所有值组成一个IN-list, 查询结果按key分发给等待的请求
+     */
+    private void flushLookupBatch() {
+        List<LookupRequest> requests;
+        synchronized (this) {
+            if (pendingRequests.isEmpty()) {
+                return;
             }
-            row.setField(entry.getKey(), obj);
+            requests = pendingRequests;
+            pendingRequests = Lists.newArrayList();
         }
 
-        for (Map.Entry<Integer, String> entry : sideInfo.getSideFieldNameIndex().entrySet()) {
-            if (cacheInfo == null) {
-                row.setField(entry.getKey(), null);
-            } else {
-                row.setField(entry.getKey(), cacheInfo.get(entry.getValue()));
+        scan(requests, true);
+    }
+
+    /**
+     * @param batch 批量查询时每个关联字段用所有key的值组成一个IN-list
+     */
+    private AsyncKuduScanner newScanner(List<LookupRequest> requests, boolean batch, ReplicaSelection replicaSelection) {
+        if (!batch && primaryKeyLookup) {
+            return newPointLookupScanner(requests.get(0).equalValues, replicaSelection);
+        }
+
+        AsyncKuduScanner.AsyncKuduScannerBuilder scannerBuilder = newScannerBuilder(!batch).replicaSelection(replicaSelection);
+        for (int i = 0; i < equalColumns.length; i++) {
+            Set<Object> values = new LinkedHashSet<>();
+            for (LookupRequest request : requests) {
+                values.add(request.equalValues[i]);
             }
+            //增加过滤条件
+            scannerBuilder.addPredicate(KuduPredicate.newInListPredicate(equalColumns[i], Lists.newArrayList(values)));
         }
+        return scannerBuilder.build();
+    }
 
-        return row;
+    /**
+     * 第一次查询轮流发给leader和最近的副本; 开启再次查询时超过等待时间还没有返回, 用另一种副本选择再发一次, 避免再次查询落到同一个慢副本上
+     */
+    private void scan(List<LookupRequest> requests, boolean batch) {
+        ReplicaSelection replicaSelection = null == replicaSelector || (replicaSelector.getAndIncrement() & 1) == 0
+                ? ReplicaSelection.LEADER_ONLY : ReplicaSelection.CLOSEST_REPLICA;
+        HedgedLookup lookup = new HedgedLookup(requests, batch, replicaSelection);
+        long delayNanos = hedgeDelayNanos;
+        if (null != hedgeCandidates && delayNanos > 0) {
+            lookup.hedgeDeadlineNanos = lookup.startNanos + delayNanos;
+            hedgeCandidates.add(lookup);
+        }
+        sendScan(lookup, false);
     }
 
-    public String buildCacheKey(JsonArray jsonArray) {
-        StringBuilder sb = new StringBuilder();
-        for (Object ele : jsonArray.getList()) {
-            sb.append(ele.toString())
-                    .append("_");
+    private void sendScan(HedgedLookup lookup, boolean hedge) {
+        AsyncKuduScanner asyncKuduScanner;
+        try {
+            ReplicaSelection replicaSelection = !hedge ? lookup.replicaSelection
+                    : lookup.replicaSelection == ReplicaSelection.LEADER_ONLY ? ReplicaSelection.CLOSEST_REPLICA : ReplicaSelection.LEADER_ONLY;
+            asyncKuduScanner = newScanner(lookup.requests, lookup.batch, replicaSelection);
+        } catch (Exception e) {
+            lookup.fail(e);
+            return;
         }
 
-        return sb.toString();
+        Deferred<RowResultIterator> data = asyncKuduScanner.nextRows();
+        //从之前的同步修改为调用异步的Callback
+        data.addCallbackDeferring(new GetListRowCB(asyncKuduScanner, lookup))
+                .addErrback(new Callback<Object, Exception>() {
+                    @Override
+                    public Object call(Exception e) {
+                        LOG.error("lookup kudu failed.", e);
+                        lookup.fail(e);
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * HYBRID模式下的loader只复制扫描需要的配置, 自己获取共用的客户端, 不引用当前实例
+     */
+    @Override
+    public SnapshotLoader createSnapshotLoader() throws Exception {
+        Type keyType = equalColumns.length == 1 ? equalColumns[0].getType() : null;
+        boolean integralKey = keyType == Type.INT8 || keyType == Type.INT16 || keyType == Type.INT32 || keyType == Type.INT64;
+        return new KuduSnapshotLoader(kuduSideTableInfo, Arrays.asList(sideFieldNames), sideFieldTypes, equalFieldPositions,
+                sideInfo.getEqualValIndex(), integralKey);
+    }
+
+    @Override
+    public Row fillData(Row input, Object sideInput) {
+        return sideInfo.fillRow(input, (Object[]) sideInput);
     }
 
     @Override
     public void close() throws Exception {
         super.close();
+        if (null != batchScheduler) {
+            batchScheduler.shutdownNow();
+        }
+        if (null != hedgeScheduler) {
+            hedgeScheduler.shutdownNow();
+        }
         if (null != asyncClient) {
-            try {
-                asyncClient.close();
-            } catch (Exception e) {
-                LOG.error("Error while closing client.", e);
+            KuduClientFactory.release(kuduSideTableInfo);
+            asyncClient = null;
+        }
+    }
+
+    /**
+     * 按查询字段的顺序读取一行数据
+     */
+    private Object[] readRow(RowResult result) {
+        return readRow(result, sideFieldTypes);
+    }
+
+    private static Object[] readRow(RowResult result, Type[] types) {
+        Object[] oneRow = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (!result.isNull(i)) {
+                oneRow[i] = readValue(types[i], i, result);
             }
         }
+        return oneRow;
     }
 
-    private void setMapValue(Type type, Map<String, Object> oneRow, String sideFieldName, RowResult result) {
+    private static Object readValue(Type type, int index, RowResult result) {
         switch (type) {
             case STRING:
-                oneRow.put(sideFieldName, result.getString(sideFieldName));
-                break;
+                return result.getString(index);
             case FLOAT:
-                oneRow.put(sideFieldName, result.getFloat(sideFieldName));
-                break;
+                return result.getFloat(index);
             case INT8:
-                oneRow.put(sideFieldName, result.getFloat(sideFieldName));
-                break;
+                return result.getByte(index);
             case INT16:
-                oneRow.put(sideFieldName, result.getShort(sideFieldName));
-                break;
+                return result.getShort(index);
             case INT32:
-                oneRow.put(sideFieldName, result.getInt(sideFieldName));
-                break;
+                return result.getInt(index);
             case INT64:
-                oneRow.put(sideFieldName, result.getLong(sideFieldName));
-                break;
+                return result.getLong(index);
             case DOUBLE:
-                oneRow.put(sideFieldName, result.getDouble(sideFieldName));
-                break;
+                return result.getDouble(index);
             case BOOL:
-                oneRow.put(sideFieldName, result.getBoolean(sideFieldName));
-                break;
+                return result.getBoolean(index);
             case UNIXTIME_MICROS:
-                oneRow.put(sideFieldName, result.getTimestamp(sideFieldName));
-                break;
+                return result.getTimestamp(index);
             case BINARY:
-                oneRow.put(sideFieldName, result.getBinary(sideFieldName));
-                break;
+                return result.getBinary(index);
             default:
                 throw new IllegalArgumentException("Illegal var type: " + type);
         }
     }
 
-    class GetListRowCB implements Callback<Deferred<List<Row>>, RowResultIterator> {
-        private Row input;
-        private List<Map<String, Object>> cacheContent;
-        private List<Row> rowList;
-        private AsyncKuduScanner asyncKuduScanner;
-        private ResultFuture<Row> resultFuture;
-        private String key;
+    /**
+     * HYBRID模式下扫描全表, 按关联字段建立索引; 在后台线程中同步扫描, 不占用异步查询的回调线程.
+     * 共用时可能比创建它的subtask活得更久, 所以单独获取客户端, close时释放
+     */
+    private static class KuduSnapshotLoader implements SnapshotLoader {
+        private final KuduSideTableInfo tableInfo;
+        private final List<String> columnNames;
+        private final Type[] columnTypes;
+        private final int[] equalFieldPositions;
+        private final List<Integer> equalValIndex;
+        private final boolean integralKey;
+        private AsyncKuduClient client;
+
+        KuduSnapshotLoader(KuduSideTableInfo tableInfo, List<String> columnNames, Type[] columnTypes, int[] equalFieldPositions,
+                           List<Integer> equalValIndex, boolean integralKey) throws Exception {
+            this.tableInfo = tableInfo;
+            this.columnNames = columnNames;
+            this.columnTypes = columnTypes;
+            this.equalFieldPositions = equalFieldPositions;
+            this.equalValIndex = equalValIndex;
+            this.integralKey = integralKey;
+            this.client = KuduClientFactory.acquire(tableInfo);
+        }
 
+        @Override
+        public AllCacheIndex<Object[]> load() throws Exception {
+            MutableAllCacheIndex<Object[]> index = AllCacheIndex.create(equalValIndex, integralKey, ECacheStorage.HEAP.name());
+            KuduClient syncClient = client.syncClient();
+            KuduScanner.KuduScannerBuilder scannerBuilder = syncClient.newScannerBuilder(syncClient.openTable(tableInfo.getTableName()))
+                    .setProjectedColumnNames(columnNames);
+            Integer batchSizeBytes = tableInfo.getBatchSizeBytes();
+            if (null != batchSizeBytes) {
+                scannerBuilder.batchSizeBytes(batchSizeBytes);
+            }
+            Boolean isFaultTolerant = tableInfo.getFaultTolerant();
+            if (null != isFaultTolerant) {
+                scannerBuilder.setFaultTolerant(isFaultTolerant);
+            }
 
-        public GetListRowCB() {
+            KuduScanner scanner = scannerBuilder.build();
+            try {
+                while (scanner.hasMoreRows()) {
+                    for (RowResult result : scanner.nextRows()) {
+                        Object[] oneRow = readRow(result, columnTypes);
+                        Object[] equalValues = new Object[equalFieldPositions.length];
+                        for (int i = 0; i < equalValues.length; i++) {
+                            equalValues[i] = oneRow[equalFieldPositions[i]];
+                        }
+                        SideKey key = SideKey.of(equalValues);
+                        if (null != key) {
+                            index.add(key, oneRow);
+                        }
+                    }
+                }
+            } finally {
+                try {
+                    scanner.close();
+                } catch (KuduException e) {
+                    LOG.error("Error while closing scanner.", e);
+                }
+            }
+            LOG.info("load side table snapshot from kudu, size {}", index.size());
+            return index;
         }
 
-        GetListRowCB(Row input, List<Map<String, Object>> cacheContent, List<Row> rowList, AsyncKuduScanner asyncKuduScanner, ResultFuture<Row> resultFuture, String key) {
-            this.input = input;
-            this.cacheContent = cacheContent;
-            this.rowList = rowList;
-            this.asyncKuduScanner = asyncKuduScanner;
-            this.resultFuture = resultFuture;
+        @Override
+        public void close() {
+            if (null != client) {
+                KuduClientFactory.release(tableInfo);
+                client = null;
+            }
+        }
+    }
+
+    /**
+     * 一次查询的key, 等待结果的数据登记在AsyncReqRow中
+     */
+    private static class LookupRequest {
+        private final SideKey key;
+        private final Object[] equalValues;
+
+        LookupRequest(SideKey key, Object[] equalValues) {
             this.key = key;
+            this.equalValues = equalValues;
         }
+    }
 
-        @Override
-        public Deferred<List<Row>> call(RowResultIterator results) throws Exception {
-            for (RowResult result : results) {
-                Map<String, Object> oneRow = Maps.newHashMap();
-                for (String sideFieldName1 : sideInfo.getSideSelectFields().split(",")) {
-                    String sideFieldName = sideFieldName1.trim();
-                    ColumnSchema columnSchema = table.getSchema().getColumn(sideFieldName);
-                    if (null != columnSchema) {
-                        setMapValue(columnSchema.getType(), oneRow, sideFieldName, result);
-                    }
+    /**
+     * 最近若干次查询从发出到完成的耗时, 环形覆盖; 再次查询先返回时, 记录的耗时是第一次查询耗时的下限
+     */
+    private static class LatencyRecorder {
+        private final long[] samples;
+        private int count;
+        private int next;
+
+        LatencyRecorder(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * 样本不足时返回-1
+         */
+        long percentile(double percentile) {
+            long[] sorted;
+            synchronized (this) {
+                if (count < HEDGE_MIN_SAMPLES) {
+                    return -1;
                 }
-                Row row = fillData(input, oneRow);
-                if (openCache()) {
-                    cacheContent.add(oneRow);
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+
+    /**
+     * 同一批key的第一次查询和再次查询, 先返回结果的完成等待的数据; 所有查询都失败时才按失败处理
+     */
+    private class HedgedLookup {
+        private final List<LookupRequest> requests;
+        private final boolean batch;
+        private final ReplicaSelection replicaSelection;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private long hedgeDeadlineNanos;
+
+        HedgedLookup(List<LookupRequest> requests, boolean batch, ReplicaSelection replicaSelection) {
+            this.requests = requests;
+            this.batch = batch;
+            this.replicaSelection = replicaSelection;
+        }
+
+        boolean isDone() {
+            return done.get();
+        }
+
+        boolean startHedge() {
+            if (done.get()) {
+                return false;
+            }
+            pending.incrementAndGet();
+            return true;
+        }
+
+        void complete(Map<SideKey, List<Object[]>> cacheContents) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            if (null != latencyRecorder) {
+                latencyRecorder.record(System.nanoTime() - startNanos);
+            }
+
+            for (LookupRequest request : requests) {
+                List<Object[]> cacheContent = cacheContents.get(request.key);
+                if (null != cacheContent) {
+                    completeInFlight(request.key, CacheObj.buildCacheObj(ECacheContentType.MultiLine, cacheContent));
+                } else {
+                    //放置在putCache的Miss中 一段时间内同一个key都会直接返回
+                    completeInFlight(request.key, CacheMissVal.getMissKeyObj());
                 }
-                rowList.add(row);
             }
-            if (asyncKuduScanner.hasMoreRows()) {
-                return asyncKuduScanner.nextRows().addCallbackDeferring(this);
+        }
+
+        void fail(Exception e) {
+            if (pending.decrementAndGet() > 0 || !done.compareAndSet(false, true)) {
+                return;
             }
+            for (LookupRequest request : requests) {
+                completeInFlightExceptionally(request.key, e);
+            }
+        }
+    }
+
+    class GetListRowCB implements Callback<Deferred<Object>, RowResultIterator> {
+        private AsyncKuduScanner asyncKuduScanner;
+        private HedgedLookup lookup;
+        private List<LookupRequest> requests;
+        /**
+         * 按关联字段分组的查询结果
+         */
+        private Map<SideKey, List<Object[]>> cacheContents = Maps.newHashMap();
+
+
+        GetListRowCB(AsyncKuduScanner asyncKuduScanner, HedgedLookup lookup) {
+            this.asyncKuduScanner = asyncKuduScanner;
+            this.lookup = lookup;
+            this.requests = lookup.requests;
+        }
 
-            if (rowList.size() > 0) {
-                if (openCache()) {
-                    putCache(key, CacheObj.buildCacheObj(ECacheContentType.MultiLine, cacheContent));
+        @Override
+        public Deferred<Object> call(RowResultIterator results) throws Exception {
+            //另一个查询已经先返回, 不再读取剩余的数据
+            if (lookup.isDone()) {
+                if (asyncKuduScanner.hasMoreRows()) {
+                    asyncKuduScanner.close();
                 }
-                resultFuture.complete(rowList);
-            } else {
-                dealMissKey(input, resultFuture);
-                if (openCache()) {
-                    //放置在putCache的Miss中 一段时间内同一个key都会直接返回
-                    putCache(key, CacheMissVal.getMissKeyObj());
+                return null;
+            }
+
+            for (RowResult result : results) {
+                Object[] oneRow = readRow(result);
+                SideKey resultKey = resultKey(oneRow);
+                if (null != resultKey) {
+                    cacheContents.computeIfAbsent(resultKey, key -> Lists.newArrayList()).add(oneRow);
                 }
             }
+            if (asyncKuduScanner.hasMoreRows()) {
+                return asyncKuduScanner.nextRows().addCallbackDeferring(this);
+            }
 
+            lookup.complete(cacheContents);
             return null;
         }
+
+        /**
+         * 单key查询时结果都属于同一个key, 批量查询时按结果中的关联字段重新计算key
+         */
+        private SideKey resultKey(Object[] oneRow) {
+            if (requests.size() == 1) {
+                return requests.get(0).key;
+            }
+            Object[] equalValues = new Object[equalFieldPositions.length];
+            for (int i = 0; i < equalValues.length; i++) {
+                equalValues[i] = oneRow[equalFieldPositions[i]];
+            }
+            return SideKey.of(equalValues);
+        }
     }
 
 }
@@ -40,6 +40,17 @@ public class KuduAsyncSideInfo extends SideInfo {
             dealOneEqualCon(sqlNode, sideTableName);
         }
 
+        //add join on condition field to select fields, batch lookup dispatch rows by them
+        List<String> fields = Lists.newArrayList(sideSelectFields.split(","));
+        for (String equalField : equalFieldList) {
+            if (fields.contains(equalField)) {
+                continue;
+            }
+
+            fields.add(equalField);
+        }
+        sideSelectFields = String.join(",", fields);
+
         sqlCondition = "select ${selectField} from ${tableName} ";
         sqlCondition = sqlCondition.replace("${tableName}", kuduSideTableInfo.getTableName()).replace("${selectField}", sideSelectFields);
         System.out.println("---------side_exe_sql-----\n" + sqlCondition);
@@ -0,0 +1,46 @@
+package com.yjp.flink.sql.side.kudu.table;
+
+import com.yjp.flink.sql.side.SideResourceRegistry;
+import org.apache.flink.util.Preconditions;
+import org.apache.kudu.client.AsyncKuduClient;
+
+/**
+ * kudu客户端是线程安全的, 连接配置相同的维表在同一个TaskManager中共用一个客户端和它的netty线程
+ */
+public class KuduClientFactory {
+
+    private KuduClientFactory() {
+    }
+
+    public static AsyncKuduClient acquire(KuduSideTableInfo tableInfo) throws Exception {
+        Preconditions.checkNotNull(tableInfo.getKuduMasters(), "kuduMasters could not be null");
+        return SideResourceRegistry.acquire(clientKey(tableInfo), () -> build(tableInfo));
+    }
+
+    public static void release(KuduSideTableInfo tableInfo) {
+        SideResourceRegistry.release(clientKey(tableInfo));
+    }
+
+    private static AsyncKuduClient build(KuduSideTableInfo tableInfo) {
+        Integer workerCount = tableInfo.getWorkerCount();
+        Integer defaultSocketReadTimeoutMs = tableInfo.getDefaultSocketReadTimeoutMs();
+        Integer defaultOperationTimeoutMs = tableInfo.getDefaultOperationTimeoutMs();
+
+        AsyncKuduClient.AsyncKuduClientBuilder asyncKuduClientBuilder = new AsyncKuduClient.AsyncKuduClientBuilder(tableInfo.getKuduMasters());
+        if (null != workerCount) {
+            asyncKuduClientBuilder.workerCount(workerCount);
+        }
+        if (null != defaultSocketReadTimeoutMs) {
+            asyncKuduClientBuilder.defaultSocketReadTimeoutMs(defaultSocketReadTimeoutMs);
+        }
+        if (null != defaultOperationTimeoutMs) {
+            asyncKuduClientBuilder.defaultOperationTimeoutMs(defaultOperationTimeoutMs);
+        }
+        return asyncKuduClientBuilder.build();
+    }
+
+    private static String clientKey(KuduSideTableInfo tableInfo) {
+        return "kudu:" + tableInfo.getKuduMasters() + ":" + tableInfo.getWorkerCount() + ":"
+                + tableInfo.getDefaultSocketReadTimeoutMs() + ":" + tableInfo.getDefaultOperationTimeoutMs();
+    }
+}
@@ -1,5 +1,6 @@
 package com.yjp.flink.sql.side.kudu.table;
 
+import com.yjp.flink.sql.enums.ECacheStorage;
 import com.yjp.flink.sql.table.AbsSideTableParser;
 import com.yjp.flink.sql.table.TableInfo;
 import com.yjp.flink.sql.util.MathUtil;
@@ -47,6 +48,42 @@ public class KuduSideParser extends AbsSideTableParser {
      */
     public static final String UPPER_BOUND_PRIMARY_KEY = "upperBoundPrimaryKey";
 
+    /**
+     * 批量查询攒批的key个数, 大于1时开启, 不配置或为1时逐个查询
+     */
+    public static final String BATCH_LOOKUP_SIZE = "batchLookupSize";
+
+    /**
+     * 批量查询攒批的最长等待时间
+     */
+    public static final String BATCH_LOOKUP_MS = "batchLookupMs";
+
+    /**
+     * ALL缓存全量加载时并发扫描tablet的线程数
+     */
+    public static final String LOAD_PARALLELISM = "loadParallelism";
+
+    /**
+     * ALL缓存增量加载的字段(更新时间或版本号), 配置后reload时只加载变化的数据;
+     * 需要额外在堆内保存主键到数据的映射, 每条数据多占用一个HashMap节点和主键对象(约100字节), 数据本身与索引共用
+     */
+    public static final String INCREMENTAL_COLUMN = "incrementalColumn";
+
+    /**
+     * 增量加载时全量重新加载的间隔, 用于同步被删除的数据
+     */
+    public static final String FULL_RELOAD_MS = "fullReloadMs";
+
+    /**
+     * 查询耗时超过该百分位(如99)时向其它副本再发一次查询, 配置后开启
+     */
+    public static final String HEDGE_PERCENTILE = "hedgePercentile";
+
+    /**
+     * 再次查询的最小等待时间
+     */
+    public static final String HEDGE_MIN_DELAY_MS = "hedgeMinDelayMs";
+
 
     @Override
     public TableInfo getTableInfo(String tableName, String fieldsInfo, Map<String, Object> props) {
@@ -55,6 +92,7 @@ public class KuduSideParser extends AbsSideTableParser {
         parseFieldsInfo(fieldsInfo, kuduSideTableInfo);
 
         parseCacheProp(kuduSideTableInfo, props);
+        parseAsyncProp(kuduSideTableInfo, props);
 
         kuduSideTableInfo.setParallelism(MathUtil.getIntegerVal(props.get(PARALLELISM_KEY.toLowerCase())));
         kuduSideTableInfo.setKuduMasters(MathUtil.getString(props.get(KUDU_MASTERS.toLowerCase())));
@@ -68,7 +106,30 @@ public class KuduSideParser extends AbsSideTableParser {
         kuduSideTableInfo.setPrimaryKey(MathUtil.getString(props.get(PRIMARY_KEY.toLowerCase())));
         kuduSideTableInfo.setLowerBoundPrimaryKey(MathUtil.getString(props.get(LOWER_BOUND_PRIMARY_KEY.toLowerCase())));
         kuduSideTableInfo.setUpperBoundPrimaryKey(MathUtil.getString(props.get(UPPER_BOUND_PRIMARY_KEY.toLowerCase())));
+        kuduSideTableInfo.setBatchLookupSize(MathUtil.getIntegerVal(props.get(BATCH_LOOKUP_SIZE.toLowerCase())));
+        kuduSideTableInfo.setBatchLookupMs(MathUtil.getLongVal(props.get(BATCH_LOOKUP_MS.toLowerCase())));
+        kuduSideTableInfo.setLoadParallelism(MathUtil.getIntegerVal(props.get(LOAD_PARALLELISM.toLowerCase())));
+        kuduSideTableInfo.setIncrementalColumn(MathUtil.getString(props.get(INCREMENTAL_COLUMN.toLowerCase())));
+        kuduSideTableInfo.setFullReloadMs(MathUtil.getLongVal(props.get(FULL_RELOAD_MS.toLowerCase())));
+        kuduSideTableInfo.setHedgePercentile(MathUtil.getDoubleVal(props.get(HEDGE_PERCENTILE.toLowerCase())));
+        kuduSideTableInfo.setHedgeMinDelayMs(MathUtil.getLongVal(props.get(HEDGE_MIN_DELAY_MS.toLowerCase())));
+        if (null != kuduSideTableInfo.getIncrementalColumn()
+                && !ECacheStorage.HEAP.name().equalsIgnoreCase(kuduSideTableInfo.getCacheStorage())) {
+            throw new RuntimeException("incrementalColumn only support heap cacheStorage");
+        }
+        if (null != kuduSideTableInfo.getFullReloadMs() && kuduSideTableInfo.getFullReloadMs() <= 0) {
+            throw new RuntimeException("fullReloadMs must be greater than 0");
+        }
+        kuduSideTableInfo.check();
         return kuduSideTableInfo;
 
     }
+
+    /**
+     * 异步查询在HYBRID模式下扫描全表加载全量数据
+     */
+    @Override
+    protected boolean supportHybridCache() {
+        return true;
+    }
 }
@@ -45,6 +45,41 @@ public class KuduSideTableInfo extends SideTableInfo {
      */
     private String upperBoundPrimaryKey;
 
+    /**
+     * 批量查询攒批的key个数, 大于1时开启, 不配置或为1时逐个查询
+     */
+    private Integer batchLookupSize;
+
+    /**
+     * 批量查询攒批的最长等待时间
+     */
+    private Long batchLookupMs;
+
+    /**
+     * ALL缓存全量加载时并发扫描tablet的线程数
+     */
+    private Integer loadParallelism;
+
+    /**
+     * ALL缓存增量加载的字段(更新时间或版本号), 配置后堆内额外保存主键到数据的映射
+     */
+    private String incrementalColumn;
+
+    /**
+     * 增量加载时全量重新加载的间隔
+     */
+    private Long fullReloadMs;
+
+    /**
+     * 查询耗时超过最近查询耗时的该百分位时向其它副本再发一次查询, 取先返回的结果; 为空时不开启
+     */
+    private Double hedgePercentile;
+
+    /**
+     * 再次查询的最小等待时间
+     */
+    private Long hedgeMinDelayMs;
+
 
     public KuduSideTableInfo() {
         setType(CURR_TYPE);
@@ -139,11 +174,71 @@ public class KuduSideTableInfo extends SideTableInfo {
         this.primaryKey = primaryKey;
     }
 
+    public Integer getBatchLookupSize() {
+        return batchLookupSize;
+    }
+
+    public void setBatchLookupSize(Integer batchLookupSize) {
+        this.batchLookupSize = batchLookupSize;
+    }
+
+    public Long getBatchLookupMs() {
+        return batchLookupMs;
+    }
+
+    public void setBatchLookupMs(Long batchLookupMs) {
+        this.batchLookupMs = batchLookupMs;
+    }
+
+    public Integer getLoadParallelism() {
+        return loadParallelism;
+    }
+
+    public void setLoadParallelism(Integer loadParallelism) {
+        this.loadParallelism = loadParallelism;
+    }
+
+    public String getIncrementalColumn() {
+        return incrementalColumn;
+    }
+
+    public void setIncrementalColumn(String incrementalColumn) {
+        this.incrementalColumn = incrementalColumn;
+    }
+
+    public Long getFullReloadMs() {
+        return fullReloadMs;
+    }
+
+    public void setFullReloadMs(Long fullReloadMs) {
+        this.fullReloadMs = fullReloadMs;
+    }
+
+    public Double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(Double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public Long getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    public void setHedgeMinDelayMs(Long hedgeMinDelayMs) {
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+    }
 
     @Override
     public boolean check() {
         Preconditions.checkNotNull(kuduMasters, "Cassandra field of kuduMasters is required");
         Preconditions.checkNotNull(tableName, "Cassandra field of tableName is required");
+        Preconditions.checkArgument(null == batchLookupSize || batchLookupSize > 0, "batchLookupSize must be greater than 0, 1 means no batch lookup");
+        Preconditions.checkArgument(null == batchLookupMs || batchLookupMs > 0, "batchLookupMs must be greater than 0");
+        Preconditions.checkArgument(null == loadParallelism || loadParallelism > 0, "loadParallelism must be greater than 0");
+        Preconditions.checkArgument(null == hedgePercentile || (hedgePercentile > 0 && hedgePercentile < 100), "hedgePercentile must be between 0 and 100");
+        Preconditions.checkArgument(null == hedgeMinDelayMs || hedgeMinDelayMs >= 0, "hedgeMinDelayMs could not be negative");
         return true;
     }
 
@@ -0,0 +1,60 @@
+package com.yjp.flink.sql.sink.kudu;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.PartialRow;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * 按kudu列下标写入一个非空字段, 在open时根据flink字段类型和kudu列类型生成, 写入时不再做类型判断
+ */
+@FunctionalInterface
+interface KuduFieldWriter {
+
+    void write(PartialRow partialRow, Object value);
+
+    static KuduFieldWriter create(Class<?> fieldClass, ColumnSchema column, int columnIndex) {
+        Type columnType = column.getType();
+        if (fieldClass == String.class && columnType == Type.STRING) {
+            return (partialRow, value) -> partialRow.addString(columnIndex, (String) value);
+        }
+        if (fieldClass == Float.class && columnType == Type.FLOAT) {
+            return (partialRow, value) -> partialRow.addFloat(columnIndex, (Float) value);
+        }
+        if (fieldClass == Byte.class && columnType == Type.INT8) {
+            return (partialRow, value) -> partialRow.addByte(columnIndex, (Byte) value);
+        }
+        if (fieldClass == Short.class && columnType == Type.INT16) {
+            return (partialRow, value) -> partialRow.addShort(columnIndex, (Short) value);
+        }
+        if (fieldClass == Integer.class && columnType == Type.INT32) {
+            return (partialRow, value) -> partialRow.addInt(columnIndex, (Integer) value);
+        }
+        if (fieldClass == Long.class && columnType == Type.INT64) {
+            return (partialRow, value) -> partialRow.addLong(columnIndex, (Long) value);
+        }
+        if (fieldClass == Double.class && columnType == Type.DOUBLE) {
+            return (partialRow, value) -> partialRow.addDouble(columnIndex, (Double) value);
+        }
+        if (fieldClass == BigDecimal.class && columnType == Type.DECIMAL) {
+            return (partialRow, value) -> partialRow.addDecimal(columnIndex, (BigDecimal) value);
+        }
+        if (fieldClass == Boolean.class && columnType == Type.BOOL) {
+            return (partialRow, value) -> partialRow.addBoolean(columnIndex, (Boolean) value);
+        }
+        if (fieldClass == Date.class && columnType == Type.UNIXTIME_MICROS) {
+            return (partialRow, value) -> partialRow.addTimestamp(columnIndex, new Timestamp(((Date) value).getTime()));
+        }
+        if (fieldClass == Timestamp.class && columnType == Type.UNIXTIME_MICROS) {
+            return (partialRow, value) -> partialRow.addTimestamp(columnIndex, (Timestamp) value);
+        }
+        if (fieldClass == byte[].class && columnType == Type.BINARY) {
+            return (partialRow, value) -> partialRow.addBinary(columnIndex, (byte[]) value);
+        }
+        throw new IllegalArgumentException("Illegal var type: " + fieldClass.getName() + " can't write to kudu column "
+                + column.getName() + " of type " + columnType.getName());
+    }
+}
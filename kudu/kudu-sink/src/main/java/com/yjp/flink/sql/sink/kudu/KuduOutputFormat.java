@@ -18,22 +18,57 @@
 
 package com.yjp.flink.sql.sink.kudu;
 
+import com.stumbleupon.async.Callback;
+import com.yjp.flink.sql.metric.MetricConstant;
 import com.yjp.flink.sql.sink.MetricOutputFormat;
+import com.yjp.flink.sql.threadFactory.YjpThreadFactory;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.configuration.Configuration;
+import org.apache.flink.metrics.Counter;
 import org.apache.flink.types.Row;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
 import org.apache.kudu.client.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class KuduOutputFormat extends MetricOutputFormat {
 
+    private static final Logger LOG = LoggerFactory.getLogger(KuduOutputFormat.class);
+
+    /**
+     * 默认每批写入的条数
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * 默认缓冲区最大字节数
+     */
+    public static final int DEFAULT_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * 默认最长刷新间隔
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
     public enum WriteMode {INSERT, UPDATE, UPSERT}
 
+    /**
+     * MANUAL: 由sink按条数/字节数/定时器触发flush
+     * BACKGROUND: 由kudu session后台按条数和间隔自动flush
+     */
+    public enum FlushMode {MANUAL, BACKGROUND}
+
 //    public enum Consistency {EVENTUAL, STRONG}
 
     private String kuduMasters;
@@ -61,6 +96,49 @@ public class KuduOutputFormat extends MetricOutputFormat {
 
     private Integer defaultSocketReadTimeoutMs;
 
+    private FlushMode flushMode = FlushMode.MANUAL;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int bufferBytes = DEFAULT_BUFFER_BYTES;
+
+    private int flushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+
+    private transient AsyncKuduSession session;
+
+    private transient ScheduledExecutorService flushScheduler;
+
+    private transient long pendingBytes;
+
+    /**
+     * sink字段对应的kudu列下标
+     */
+    private transient int[] columnIndexes;
+
+    /**
+     * open时按kudu表结构为每个字段生成的写入器, 写入时不再做字段名查找和类型判断
+     */
+    private transient KuduFieldWriter[] fieldWriters;
+
+    /**
+     * kudu主键字段在sink字段中的下标
+     */
+    private transient int[] primaryKeyIndexes;
+
+    /**
+     * 按主键合并后的待写入数据, 同一个主键只保留最后一次变更
+     */
+    private transient Map<Row, PendingChange> pendingChanges;
+
+    /**
+     * 删除不存在的行时kudu返回NotFound, 不算失败, 计数便于发现异常的回撤
+     */
+    private transient Counter ignoredDeletes;
+
+    private transient AtomicInteger inFlightFlushes;
+
+    private transient volatile Exception flushException;
+
 
     private KuduOutputFormat() {
     }
@@ -73,7 +151,9 @@ public class KuduOutputFormat extends MetricOutputFormat {
     @Override
     public void open(int taskNumber, int numTasks) throws IOException {
         establishConnection();
+        openSession();
         initMetric();
+        ignoredDeletes = getRuntimeContext().getMetricGroup().counter(MetricConstant.DT_NUM_SINK_IGNORED_DELETE_COUNTER);
     }
 
 
@@ -83,50 +163,306 @@ public class KuduOutputFormat extends MetricOutputFormat {
             asyncKuduClientBuilder.workerCount(workerCount);
         }
         if (null != defaultSocketReadTimeoutMs) {
-            asyncKuduClientBuilder.workerCount(defaultSocketReadTimeoutMs);
+            asyncKuduClientBuilder.defaultSocketReadTimeoutMs(defaultSocketReadTimeoutMs);
         }
 
         if (null != defaultOperationTimeoutMs) {
-            asyncKuduClientBuilder.workerCount(defaultOperationTimeoutMs);
+            asyncKuduClientBuilder.defaultOperationTimeoutMs(defaultOperationTimeoutMs);
         }
         client = asyncKuduClientBuilder.build();
         KuduClient syncClient = client.syncClient();
 
-        if (syncClient.tableExists(tableName)) {
-            table = syncClient.openTable(tableName);
+        if (!syncClient.tableExists(tableName)) {
+            throw new IllegalArgumentException("Table Open Failed , please check table exists");
+        }
+        table = syncClient.openTable(tableName);
+        initFieldWriters();
+        initPrimaryKeyIndexes();
+    }
+
+    private void initFieldWriters() {
+        Schema schema = table.getSchema();
+        columnIndexes = new int[fieldNames.length];
+        fieldWriters = new KuduFieldWriter[fieldNames.length];
+        for (int index = 0; index < fieldNames.length; index++) {
+            //解决kudu中全小写字段找不到的bug
+            String columnName = fieldNames[index].toLowerCase();
+            int columnIndex;
+            try {
+                columnIndex = schema.getColumnIndex(columnName);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("column " + columnName + " not found in kudu table " + tableName, e);
+            }
+            columnIndexes[index] = columnIndex;
+            fieldWriters[index] = KuduFieldWriter.create(fieldTypes[index].getTypeClass(), schema.getColumnByIndex(columnIndex), columnIndex);
         }
     }
 
+    private void initPrimaryKeyIndexes() {
+        List<ColumnSchema> keyColumns = table.getSchema().getPrimaryKeyColumns();
+        primaryKeyIndexes = new int[keyColumns.size()];
+        for (int i = 0; i < keyColumns.size(); i++) {
+            String keyName = keyColumns.get(i).getName();
+            int keyIndex = -1;
+            for (int j = 0; j < fieldNames.length; j++) {
+                if (fieldNames[j].equalsIgnoreCase(keyName)) {
+                    keyIndex = j;
+                    break;
+                }
+            }
+            if (keyIndex == -1) {
+                throw new IllegalArgumentException("primary key column " + keyName + " of kudu table " + tableName + " not found in sink fields");
+            }
+            primaryKeyIndexes[i] = keyIndex;
+        }
+    }
+
+    /**
+     * 每个subtask只创建一个长期存活的session, 写入先进入缓冲区再批量flush
+     */
+    private void openSession() {
+        session = client.newSession();
+        session.setMutationBufferSpace(batchSize);
+        inFlightFlushes = new AtomicInteger();
+        pendingChanges = new LinkedHashMap<>();
+        if (FlushMode.BACKGROUND == flushMode) {
+            session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+            session.setFlushInterval(flushIntervalMs);
+        } else {
+            session.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+        }
+
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(new YjpThreadFactory("kudu-sink-flush"));
+        flushScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                LOG.error("Scheduled flush to kudu failed.", e);
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * retract为false的数据转换为DELETE; 同一个flush窗口内按主键合并, 只写入每个主键的最后状态,
+     * 因此group by产生的"回撤+更新"只会写入一次更新. 回撤说明该主键已经写入过,
+     * INSERT模式下合并了回撤的更新改用UPSERT写入, 否则会返回ALREADY_PRESENT
+     */
     @Override
-    public void writeRecord(Tuple2 record) throws IOException {
+    public synchronized void writeRecord(Tuple2 record) throws IOException {
+        checkFlushException();
         Tuple2<Boolean, Row> tupleTrans = record;
-        Boolean retract = tupleTrans.getField(0);
-        if (!retract) {
-            return;
-        }
         Row row = tupleTrans.getField(1);
         if (row.getArity() != fieldNames.length) {
             return;
         }
 
-        Operation operation = toOperation(writeMode, row);
-        AsyncKuduSession session = client.newSession();
-        session.apply(operation);
-        session.close();
+        Row primaryKey = Row.project(row, primaryKeyIndexes);
+        PendingChange previous = pendingChanges.get(primaryKey);
+        boolean retracted = !tupleTrans.f0 || (null != previous && previous.retracted);
+        pendingChanges.put(primaryKey, new PendingChange(tupleTrans, retracted));
+        pendingBytes += estimateRowSize(row);
+        if (null != previous) {
+            pendingBytes -= estimateRowSize(previous.change.f1);
+        }
         outRecords.inc();
+
+        if (pendingChanges.size() >= batchSize || pendingBytes >= bufferBytes) {
+            flush();
+        }
     }
 
-    @Override
-    public void close() {
-        if (null != client) {
+    private void applyPendingChanges() throws IOException {
+        for (PendingChange pendingChange : pendingChanges.values()) {
+            Tuple2<Boolean, Row> change = pendingChange.change;
+            Operation operation;
+            if (!change.f0) {
+                operation = toDeleteOperation(change.f1);
+            } else if (WriteMode.INSERT == writeMode && pendingChange.retracted) {
+                operation = toOperation(WriteMode.UPSERT, change.f1);
+            } else {
+                operation = toOperation(writeMode, change.f1);
+            }
+            applyOperation(operation);
+        }
+        pendingChanges.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * 缓冲区都在flush中时kudu会抛出PleaseThrottleException, 等待其中一个缓冲区可用后重试
+     */
+    private void applyOperation(Operation operation) throws IOException {
+        while (true) {
             try {
-                client.close();
-            } catch (Exception e) {
-                throw new IllegalArgumentException("[closeKudu]:" + e.getMessage());
+                session.apply(operation);
+                return;
+            } catch (PleaseThrottleException e) {
+                try {
+                    e.getDeferred().join();
+                } catch (Exception ex) {
+                    throw new IOException("Waiting for kudu buffer failed.", ex);
+                }
             }
         }
     }
 
+    /**
+     * 异步提交当前缓冲区, 不等待结果; 前一个缓冲区仍在flush时可以继续写入下一个缓冲区
+     */
+    public synchronized void flush() throws IOException {
+        checkFlushException();
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+
+        applyPendingChanges();
+        if (FlushMode.BACKGROUND == flushMode) {
+            return;
+        }
+
+        inFlightFlushes.incrementAndGet();
+        session.flush().addCallbacks(new Callback<Object, List<OperationResponse>>() {
+            @Override
+            public Object call(List<OperationResponse> responses) {
+                for (OperationResponse response : responses) {
+                    if (response.hasRowError() && !isIgnorable(response.getRowError())) {
+                        flushException = new IOException("Writing records to kudu failed: " + response.getRowError());
+                        break;
+                    }
+                }
+                flushFinished();
+                return null;
+            }
+        }, new Callback<Object, Exception>() {
+            @Override
+            public Object call(Exception e) {
+                flushException = e;
+                flushFinished();
+                return null;
+            }
+        });
+    }
+
+    private void flushFinished() {
+        if (inFlightFlushes.decrementAndGet() == 0) {
+            synchronized (inFlightFlushes) {
+                inFlightFlushes.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 同步flush缓冲区中以及正在flush中的所有数据, 并检查每一行的写入结果; checkpoint时调用, 保证不丢数据
+     */
+    public synchronized void drain() throws IOException {
+        checkFlushException();
+        applyPendingChanges();
+        try {
+            List<OperationResponse> responses = session.flush().join();
+            for (OperationResponse response : responses) {
+                if (response.hasRowError() && !isIgnorable(response.getRowError())) {
+                    throw new IOException("Writing records to kudu failed: " + response.getRowError());
+                }
+            }
+            //等待之前异步flush的回调执行完, 保证其中的行错误已经被记录
+            synchronized (inFlightFlushes) {
+                while (inFlightFlushes.get() > 0) {
+                    inFlightFlushes.wait();
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Flushing records to kudu failed.", e);
+        }
+        checkFlushException();
+    }
+
+    private void checkFlushException() throws IOException {
+        if (null != flushException) {
+            throw new IOException("Writing records to kudu failed.", flushException);
+        }
+
+        if (null != session && session.countPendingErrors() > 0) {
+            for (RowError rowError : session.getPendingErrors().getRowErrors()) {
+                if (!isIgnorable(rowError)) {
+                    throw new IOException("Writing records to kudu failed: " + rowError);
+                }
+            }
+        }
+    }
+
+    /**
+     * 回撤对应的主键可能从未写入过kudu, 删除不存在的行不算失败, 计入dtNumSinkIgnoredDelete
+     */
+    private boolean isIgnorable(RowError rowError) {
+        if (rowError.getErrorStatus().isNotFound() && rowError.getOperation() instanceof Delete) {
+            ignoredDeletes.inc();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 估算一行数据写入kudu的字节数, 用于按字节数触发flush
+     */
+    private long estimateRowSize(Row row) {
+        long size = 0;
+        for (int index = 0; index < row.getArity(); index++) {
+            Object field = row.getField(index);
+            if (field instanceof String) {
+                size += ((String) field).length();
+            } else if (field instanceof byte[]) {
+                size += ((byte[]) field).length;
+            } else {
+                size += Long.BYTES;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != flushScheduler) {
+            flushScheduler.shutdownNow();
+        }
+        try {
+            if (null != session) {
+                drain();
+                session.close().join();
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("[closeKuduSession]:" + e.getMessage(), e);
+        } finally {
+            if (null != client) {
+                try {
+                    client.close();
+                } catch (Exception e) {
+                    LOG.error("Error while closing client.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个主键在当前flush窗口内的最后一次变更
+     */
+    private static class PendingChange {
+        private final Tuple2<Boolean, Row> change;
+
+        /**
+         * 窗口内出现过该主键的回撤
+         */
+        private final boolean retracted;
+
+        PendingChange(Tuple2<Boolean, Row> change, boolean retracted) {
+            this.change = change;
+            this.retracted = retracted;
+        }
+    }
+
     public static KuduOutputFormatBuilder buildKuduOutputFormat() {
         return new KuduOutputFormatBuilder();
     }
@@ -202,6 +538,34 @@ public class KuduOutputFormat extends MetricOutputFormat {
             return this;
         }
 
+        public KuduOutputFormatBuilder setFlushMode(FlushMode flushMode) {
+            if (null != flushMode) {
+                kuduOutputFormat.flushMode = flushMode;
+            }
+            return this;
+        }
+
+        public KuduOutputFormatBuilder setBatchSize(Integer batchSize) {
+            if (null != batchSize) {
+                kuduOutputFormat.batchSize = batchSize;
+            }
+            return this;
+        }
+
+        public KuduOutputFormatBuilder setBufferBytes(Integer bufferBytes) {
+            if (null != bufferBytes) {
+                kuduOutputFormat.bufferBytes = bufferBytes;
+            }
+            return this;
+        }
+
+        public KuduOutputFormatBuilder setFlushIntervalMs(Integer flushIntervalMs) {
+            if (null != flushIntervalMs) {
+                kuduOutputFormat.flushIntervalMs = flushIntervalMs;
+            }
+            return this;
+        }
+
 
         public KuduOutputFormat finish() {
             if (kuduOutputFormat.kuduMasters == null) {
@@ -212,84 +576,44 @@ public class KuduOutputFormat extends MetricOutputFormat {
                 throw new IllegalArgumentException("No tablename supplied.");
             }
 
+            if (kuduOutputFormat.batchSize <= 0 || kuduOutputFormat.bufferBytes <= 0 || kuduOutputFormat.flushIntervalMs <= 0) {
+                throw new IllegalArgumentException("batchSize, bufferBytes and flushIntervalMs need > 0.");
+            }
+
             return kuduOutputFormat;
         }
     }
 
     private Operation toOperation(WriteMode writeMode, Row row) {
-        if (null == table) {
-            throw new IllegalArgumentException("Table Open Failed , please check table exists");
-        }
         Operation operation = toOperation(writeMode);
         PartialRow partialRow = operation.getRow();
 
         for (int index = 0; index < row.getArity(); index++) {
-            //解决kudu中全小写字段找不到的bug
-            String fieldName = fieldNames[index].toLowerCase();
-            if (row.getField(index) == null) {
-                partialRow.setNull(fieldName);
-            } else {
-                if (fieldTypes[index].getTypeClass() == String.class) {
-                    partialRow.addString(fieldName, (String) row.getField(index));
-                    continue;
-                }
-                if (fieldTypes[index].getTypeClass() == Float.class) {
-                    partialRow.addFloat(fieldName, (Float) row.getField(index));
-                    continue;
-                }
-                if (fieldTypes[index].getTypeClass() == Byte.class) {
-                    partialRow.addByte(fieldName, (Byte) row.getField(index));
-                    continue;
-                }
-
-                if (fieldTypes[index].getTypeClass() == Short.class) {
-                    partialRow.addShort(fieldName, (Short) row.getField(index));
-                    continue;
-                }
-
-                if (fieldTypes[index].getTypeClass() == Integer.class) {
-                    partialRow.addInt(fieldName, (Integer) row.getField(index));
-                    continue;
-                }
-
-                if (fieldTypes[index].getTypeClass() == Long.class) {
-                    partialRow.addLong(fieldName, (Long) row.getField(index));
-                    continue;
-                }
-
-                if (fieldTypes[index].getTypeClass() == Double.class) {
-                    partialRow.addDouble(fieldName, (Double) row.getField(index));
-                    continue;
-                }
-
-                if (fieldTypes[index].getTypeClass() == BigDecimal.class) {
-                    partialRow.addDecimal(fieldName, (BigDecimal) row.getField(index));
-                    continue;
-                }
-                if (fieldTypes[index].getTypeClass() == Boolean.class) {
-                    partialRow.addBoolean(fieldName, (Boolean) row.getField(index));
-                    continue;
-                }
+            setField(partialRow, index, row.getField(index));
+        }
+        return operation;
 
-                if (fieldTypes[index].getTypeClass() == Date.class) {
-                    partialRow.addTimestamp(fieldName, new Timestamp(((Date) row.getField(index)).getTime()));
-                    continue;
-                }
+    }
 
-                if (fieldTypes[index].getTypeClass() == Timestamp.class) {
-                    partialRow.addTimestamp(fieldName, (Timestamp) row.getField(index));
-                    continue;
-                }
+    /**
+     * DELETE只能设置主键字段
+     */
+    private Operation toDeleteOperation(Row row) {
+        Operation operation = table.newDelete();
+        PartialRow partialRow = operation.getRow();
 
-                if (fieldTypes[index].getTypeClass() == byte[].class) {
-                    partialRow.addBinary(fieldName, (byte[]) row.getField(index));
-                    continue;
-                }
-                throw new IllegalArgumentException("Illegal var type: " + fieldTypes[index]);
-            }
+        for (int index : primaryKeyIndexes) {
+            setField(partialRow, index, row.getField(index));
         }
         return operation;
+    }
 
+    private void setField(PartialRow partialRow, int index, Object value) {
+        if (value == null) {
+            partialRow.setNull(columnIndexes[index]);
+        } else {
+            fieldWriters[index].write(partialRow, value);
+        }
     }
 
     private Operation toOperation(WriteMode writeMode) {
@@ -305,4 +629,4 @@ public class KuduOutputFormat extends MetricOutputFormat {
         }
     }
 
-}
\ No newline at end of file
+}
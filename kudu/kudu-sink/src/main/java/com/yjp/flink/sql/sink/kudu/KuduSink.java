@@ -4,18 +4,19 @@ package com.yjp.flink.sql.sink.kudu;
 import com.yjp.flink.sql.sink.IStreamSinkGener;
 import com.yjp.flink.sql.sink.kudu.table.KuduTableInfo;
 import com.yjp.flink.sql.table.TargetTableInfo;
+import org.apache.flink.api.common.functions.Partitioner;
 import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.api.java.typeutils.RowTypeInfo;
 import org.apache.flink.api.java.typeutils.TupleTypeInfo;
 import org.apache.flink.streaming.api.datastream.DataStream;
-import org.apache.flink.streaming.api.functions.sink.OutputFormatSinkFunction;
-import org.apache.flink.streaming.api.functions.sink.RichSinkFunction;
+import org.apache.flink.streaming.api.datastream.DataStreamSink;
 import org.apache.flink.table.sinks.RetractStreamTableSink;
 import org.apache.flink.table.sinks.TableSink;
 import org.apache.flink.types.Row;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 public class KuduSink implements RetractStreamTableSink<Row>, Serializable, IStreamSinkGener<KuduSink> {
 
@@ -40,6 +41,16 @@ public class KuduSink implements RetractStreamTableSink<Row>, Serializable, IStr
 
     private Integer defaultSocketReadTimeoutMs;
 
+    private KuduOutputFormat.FlushMode flushMode;
+
+    private Integer batchSize;
+
+    private Integer bufferBytes;
+
+    private Integer flushIntervalMs;
+
+    private boolean partitionByTablet;
+
     private int parallelism = -1;
 
     @Override
@@ -51,6 +62,12 @@ public class KuduSink implements RetractStreamTableSink<Row>, Serializable, IStr
         this.defaultSocketReadTimeoutMs = kuduTableInfo.getDefaultSocketReadTimeoutMs();
         this.workerCount = kuduTableInfo.getWorkerCount();
         this.writeMode = kuduTableInfo.getWriteMode();
+        this.flushMode = kuduTableInfo.getFlushMode();
+        this.batchSize = kuduTableInfo.getBatchSize();
+        this.bufferBytes = kuduTableInfo.getBufferBytes();
+        this.flushIntervalMs = kuduTableInfo.getFlushIntervalMs();
+        this.partitionByTablet = kuduTableInfo.isPartitionByTablet();
+        this.parallelism = Objects.isNull(kuduTableInfo.getParallelism()) ? parallelism : kuduTableInfo.getParallelism();
 
         return this;
     }
@@ -64,11 +81,23 @@ public class KuduSink implements RetractStreamTableSink<Row>, Serializable, IStr
                 .setWorkerCount(this.workerCount)
                 .setDefaultOperationTimeoutMs(this.defaultOperationTimeoutMs)
                 .setDefaultSocketReadTimeoutMs(this.defaultSocketReadTimeoutMs)
+                .setFlushMode(this.flushMode)
+                .setBatchSize(this.batchSize)
+                .setBufferBytes(this.bufferBytes)
+                .setFlushIntervalMs(this.flushIntervalMs)
                 .setFieldNames(this.fieldNames)
                 .setFieldTypes(this.fieldTypes);
         KuduOutputFormat kuduOutputFormat = builder.finish();
-        RichSinkFunction richSinkFunction = new OutputFormatSinkFunction(kuduOutputFormat);
-        dataStream.addSink(richSinkFunction);
+        KuduSinkFunction kuduSinkFunction = new KuduSinkFunction(kuduOutputFormat);
+        if (partitionByTablet) {
+            //同一个kudu分区的数据固定发往同一个subtask, 每个subtask只写一部分tablet
+            KuduPartitionKeySelector keySelector = new KuduPartitionKeySelector(kuduMasters, tableName, fieldNames, fieldTypes);
+            dataStream = dataStream.partitionCustom((Partitioner<Integer>) (partition, numPartitions) -> Math.floorMod(partition, numPartitions), keySelector);
+        }
+        DataStreamSink<Tuple2<Boolean, Row>> dataStreamSink = dataStream.addSink(kuduSinkFunction);
+        if (parallelism > 0) {
+            dataStreamSink.setParallelism(parallelism);
+        }
     }
 
     @Override
@@ -0,0 +1,54 @@
+package com.yjp.flink.sql.sink.kudu;
+
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.runtime.state.FunctionInitializationContext;
+import org.apache.flink.runtime.state.FunctionSnapshotContext;
+import org.apache.flink.streaming.api.checkpoint.CheckpointedFunction;
+import org.apache.flink.streaming.api.functions.sink.RichSinkFunction;
+import org.apache.flink.types.Row;
+
+/**
+ * kudu sink, checkpoint时把缓冲区中的数据全部写入kudu并检查行错误, 保证at-least-once
+ */
+public class KuduSinkFunction extends RichSinkFunction<Tuple2<Boolean, Row>> implements CheckpointedFunction {
+
+    private static final long serialVersionUID = -3519327426018335624L;
+
+    private final KuduOutputFormat outputFormat;
+
+    public KuduSinkFunction(KuduOutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        RuntimeContext context = getRuntimeContext();
+        outputFormat.setRuntimeContext(context);
+        outputFormat.configure(parameters);
+        outputFormat.open(context.getIndexOfThisSubtask(), context.getNumberOfParallelSubtasks());
+    }
+
+    @Override
+    public void invoke(Tuple2<Boolean, Row> value, Context context) throws Exception {
+        outputFormat.writeRecord(value);
+    }
+
+    @Override
+    public void snapshotState(FunctionSnapshotContext context) throws Exception {
+        outputFormat.drain();
+    }
+
+    @Override
+    public void initializeState(FunctionInitializationContext context) throws Exception {
+        //每次checkpoint都会清空缓冲区, 不需要保存状态
+    }
+
+    @Override
+    public void close() throws Exception {
+        outputFormat.close();
+        super.close();
+    }
+}
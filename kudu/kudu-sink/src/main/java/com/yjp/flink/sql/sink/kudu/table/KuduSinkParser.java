@@ -23,6 +23,31 @@ public class KuduSinkParser extends AbsTableParser {
 
     public static final String SOCKET_READ_TIMEOUT_MS = "defaultSocketReadTimeoutMs";
 
+    /**
+     * flush方式 manual/background
+     */
+    public static final String FLUSH_MODE = "flushMode";
+
+    /**
+     * 缓冲区达到该条数时flush
+     */
+    public static final String BATCH_SIZE = "batchSize";
+
+    /**
+     * 缓冲区达到该字节数时flush
+     */
+    public static final String BUFFER_BYTES = "bufferBytes";
+
+    /**
+     * 缓冲区数据最长停留时间
+     */
+    public static final String FLUSH_INTERVAL_MS = "flushIntervalMs";
+
+    /**
+     * 是否按kudu分区重新分发数据, 每个subtask只写一部分tablet
+     */
+    public static final String PARTITION_BY_TABLET = "partitionByTablet";
+
     @Override
     public TableInfo getTableInfo(String tableName, String fieldsInfo, Map<String, Object> props) {
         KuduTableInfo kuduTableInfo = new KuduTableInfo();
@@ -36,9 +61,28 @@ public class KuduSinkParser extends AbsTableParser {
         kuduTableInfo.setWorkerCount(MathUtil.getIntegerVal(props.get(WORKER_COUNT.toLowerCase())));
         kuduTableInfo.setDefaultOperationTimeoutMs(MathUtil.getIntegerVal(props.get(OPERATION_TIMEOUT_MS.toLowerCase())));
         kuduTableInfo.setDefaultSocketReadTimeoutMs(MathUtil.getIntegerVal(props.get(SOCKET_READ_TIMEOUT_MS.toLowerCase())));
+        kuduTableInfo.setFlushMode(transFlushMode(MathUtil.getString(props.get(FLUSH_MODE.toLowerCase()))));
+        kuduTableInfo.setBatchSize(MathUtil.getIntegerVal(props.get(BATCH_SIZE.toLowerCase())));
+        kuduTableInfo.setBufferBytes(MathUtil.getIntegerVal(props.get(BUFFER_BYTES.toLowerCase())));
+        kuduTableInfo.setFlushIntervalMs(MathUtil.getIntegerVal(props.get(FLUSH_INTERVAL_MS.toLowerCase())));
+        kuduTableInfo.setPartitionByTablet(MathUtil.getBoolean(props.get(PARTITION_BY_TABLET.toLowerCase()), false));
         return kuduTableInfo;
     }
 
+    private KuduOutputFormat.FlushMode transFlushMode(String flushMode) {
+        if (null == flushMode) {
+            return KuduOutputFormat.FlushMode.MANUAL;
+        }
+        switch (flushMode.toLowerCase()) {
+            case "background":
+                return KuduOutputFormat.FlushMode.BACKGROUND;
+            case "manual":
+                return KuduOutputFormat.FlushMode.MANUAL;
+            default:
+                throw new IllegalArgumentException("not support flushMode:" + flushMode);
+        }
+    }
+
     private KuduOutputFormat.WriteMode transWriteMode(String writeMode) {
         switch (writeMode) {
             case "insert":
@@ -24,6 +24,16 @@ public class KuduTableInfo extends TargetTableInfo {
 
     private Integer defaultSocketReadTimeoutMs;
 
+    private KuduOutputFormat.FlushMode flushMode;
+
+    private Integer batchSize;
+
+    private Integer bufferBytes;
+
+    private Integer flushIntervalMs;
+
+    private boolean partitionByTablet;
+
     public KuduTableInfo() {
         setType(CURR_TYPE);
     }
@@ -77,10 +87,53 @@ public class KuduTableInfo extends TargetTableInfo {
         this.defaultSocketReadTimeoutMs = defaultSocketReadTimeoutMs;
     }
 
+    public KuduOutputFormat.FlushMode getFlushMode() {
+        return flushMode;
+    }
+
+    public void setFlushMode(KuduOutputFormat.FlushMode flushMode) {
+        this.flushMode = flushMode;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Integer getBufferBytes() {
+        return bufferBytes;
+    }
+
+    public void setBufferBytes(Integer bufferBytes) {
+        this.bufferBytes = bufferBytes;
+    }
+
+    public Integer getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public void setFlushIntervalMs(Integer flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    public boolean isPartitionByTablet() {
+        return partitionByTablet;
+    }
+
+    public void setPartitionByTablet(boolean partitionByTablet) {
+        this.partitionByTablet = partitionByTablet;
+    }
+
     @Override
     public boolean check() {
         Preconditions.checkNotNull(kuduMasters, "Cassandra field of kuduMasters is required");
         Preconditions.checkNotNull(tableName, "Cassandra field of tableName is required");
+        Preconditions.checkArgument(null == batchSize || batchSize > 0, "kudu sink batchSize need > 0");
+        Preconditions.checkArgument(null == bufferBytes || bufferBytes > 0, "kudu sink bufferBytes need > 0");
+        Preconditions.checkArgument(null == flushIntervalMs || flushIntervalMs > 0, "kudu sink flushIntervalMs need > 0");
         return true;
     }
 